@@ -59,7 +59,7 @@ public class MvpdListArrayAdapter extends ArrayAdapter<IProvider> {
         }
 
         ImageView mvpdIcon = (ImageView) mvpdItemView.findViewById(R.id.mvpd_logo);
-        new DownloadImageTask(mvpdIcon).execute(provider.getLogo());
+        DownloadImageTask.load(mvpdIcon, provider.getLogo());
 
         TextView mvpdNameTv = (TextView) mvpdItemView.findViewById(R.id.mvpd_name);
         mvpdNameTv.setText(provider.getName());
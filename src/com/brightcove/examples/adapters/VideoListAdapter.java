@@ -8,16 +8,25 @@ import android.widget.*;
 import com.brightcove.examples.R;
 import com.brightcove.examples.model.VideoItem;
 import com.brightcove.utils.DownloadImageTask;
+import com.brightcove.utils.ImagePrefetcher;
 
 import java.util.List;
 
 /**
- * ArrayAdapter class for rendering the grid cell items in the VideoGrid view
+ * ArrayAdapter class for rendering the grid cell items in the VideoGrid view.
+ * Provides the video thumbnails to the {@link com.brightcove.utils.ImagePrefetcher} of the VideoGrid.
+ * <p>
+ * The video items may be a {@link com.brightcove.examples.model.PagedPlaylist}, whose items are null until their page is loaded,
+ * in which case an empty grid item is rendered.
+ * <p>
+ * The adapter can be filtered to a subset of the video items, e.g. the matches of a
+ * {@link com.brightcove.examples.model.TitleSearchIndex} search, as a mapping of the adapter positions to the video item positions,
+ * so the video items are never copied
  *
  * @author Maximilian Nyman (max.nyman@anvilcreative.com)
  * @since 1.0
  */
-public class VideoListAdapter extends ArrayAdapter<VideoItem> {
+public class VideoListAdapter extends ArrayAdapter<VideoItem> implements ImagePrefetcher.Provider {
     /**
      * ResourceId for the VideoGrid item view container/wrapper
      * @see #getView(int, android.view.View, android.view.ViewGroup)
@@ -39,6 +48,19 @@ public class VideoListAdapter extends ArrayAdapter<VideoItem> {
      * @since 1.0
      */
     private VideoItem selectedItem;
+    /**
+     * Width in pixels to decode the video thumbnails at, the laid out column width of the grid,
+     * or 0 until the grid is laid out, so every thumbnail is decoded and cached at a single size
+     * @see #getView(int, android.view.View, android.view.ViewGroup)
+     * @since 1.0
+     */
+    private int thumbnailWidth = 0;
+    /**
+     * The positions of the video items of the filtered view, in display order, or null when not filtered
+     * @see #setFilter(int[])
+     * @since 1.0
+     */
+    private int[] filter;
 
     /**
      * Constructs a new VideoListAdapter for rendering the grid items for the VideoGrid
@@ -64,6 +86,78 @@ public class VideoListAdapter extends ArrayAdapter<VideoItem> {
         notifyDataSetInvalidated();
     }
 
+    /**
+     * Filters the adapter to a subset of the video items, and triggers a re-render of the video items
+     * @param positions the positions of the video items to display, in display order, or null to display all the video items
+     * @see com.brightcove.examples.model.TitleSearchIndex#search(String, int)
+     * @since 1.0
+     */
+    public void setFilter(int[] positions) {
+        this.filter = positions;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Gets the number of video items displayed, only the ones of the filtered view when filtered
+     * @return the video item count
+     * @since 1.0
+     */
+    @Override
+    public int getCount() {
+        return filter != null ? filter.length : super.getCount();
+    }
+
+    /**
+     * Gets the video item displayed at the position, mapped through the filtered view when filtered
+     * @param position the adapter position
+     * @return the video item, or null if its playlist page is not loaded yet
+     * @since 1.0
+     */
+    @Override
+    public VideoItem getItem(int position) {
+        if( filter == null ) {
+            return super.getItem(position);
+        }
+        // The filtered positions may be ahead of the playlist size, which is only known once the playlist is counted
+        int itemPosition = filter[position];
+        return itemPosition < super.getCount() ? super.getItem(itemPosition) : null;
+    }
+
+    /**
+     * Gets the thumbnail url of the video item at the position, for prefetching
+     * @param position the item position
+     * @return the video thumbnail url, or null if none, or if the thumbnail width is not known yet
+     * @since 1.0
+     */
+    @Override
+    public String getImageUrl(int position) {
+        if( thumbnailWidth <= 0 ) {
+            return null;
+        }
+        VideoItem videoItem = position >= 0 && position < getCount() ? getItem(position) : null;
+        return videoItem != null ? videoItem.getThumbnail() : null;
+    }
+
+    /**
+     * Gets the width the video thumbnails are decoded at
+     * @return the thumbnail width in pixels, or 0 until the grid is laid out, when no thumbnail url is provided
+     * @since 1.0
+     */
+    @Override
+    public int getImageWidth() {
+        return thumbnailWidth;
+    }
+
+    /**
+     * Gets the height the video thumbnails are decoded at
+     * @return 0, as the thumbnail height follows the thumbnail aspect ratio
+     * @since 1.0
+     */
+    @Override
+    public int getImageHeight() {
+        return 0;
+    }
+
     /**
      * Updates and returns the grid item view container/wrapper at the provided position for the grid view
      * @param position the item position to update
@@ -76,6 +170,19 @@ public class VideoListAdapter extends ArrayAdapter<VideoItem> {
     public View getView(int position, View convertView, ViewGroup parent) {
         VideoItemView videoItemView;
 
+        // A grid item measured before the grid is laid out gets no thumbnail, and is bound again once laid out
+        if( parent instanceof GridView ) {
+            GridView gridView = (GridView) parent;
+            int numColumns = gridView.getNumColumns();
+            int gridWidth = gridView.getWidth() - gridView.getPaddingLeft() - gridView.getPaddingRight();
+            if( numColumns > 0 && gridWidth > 0 ) {
+                thumbnailWidth = gridWidth / numColumns;
+            }
+        }
+        else if( thumbnailWidth <= 0 ) {
+            thumbnailWidth = getContext().getResources().getDimensionPixelSize(R.dimen.video_grid_column_width);
+        }
+
         if (convertView == null) {
             videoItemView = new VideoItemView(getContext(), videoGridItemResource);
         } else {
@@ -129,8 +236,13 @@ public class VideoListAdapter extends ArrayAdapter<VideoItem> {
          */
         private void updateView() {
             if( videoItem != null ) {
-                // Loads and then displays the video thumbnail
-                new DownloadImageTask(videoThumb).execute(videoItem.getThumbnail());
+                // Loads and then displays the video thumbnail, once the thumbnail width is known
+                if( thumbnailWidth > 0 ) {
+                    DownloadImageTask.load(videoThumb, thumbnailWidth, 0, videoItem.getThumbnail());
+                }
+                else {
+                    DownloadImageTask.clear(videoThumb);
+                }
                 // Updates the video title text
                 videoTitle.setText(videoItem.getTitle());
 
@@ -145,13 +257,15 @@ public class VideoListAdapter extends ArrayAdapter<VideoItem> {
                     setDefault();
                 }
 
-                // Updates the background if the current video item is selected item
-                if( videoItem == selectedItem ) {
+                // Updates the background if the current video item is selected item.
+                // Compared by video identifier, as the paged video items are views recreated whenever their page is reloaded
+                if( selectedItem != null && selectedItem.getVideoId() != null
+                        && selectedItem.getVideoId().equals(videoItem.getVideoId()) ) {
                     setSelected();
                 }
             }
             else {
-                videoThumb.setImageBitmap(null);
+                DownloadImageTask.clear(videoThumb);
                 videoTitle.setText("");
                 setDefault();
             }
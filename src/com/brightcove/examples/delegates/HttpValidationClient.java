@@ -0,0 +1,491 @@
+package com.brightcove.examples.delegates;
+
+import com.brightcove.utils.CircuitBreaker;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * HTTP client of the validation and video retrieval service.
+ * <p>
+ * A validation is a {@code GET} of the service endpoint with the {@code videoId} query parameter, carrying the
+ * ShortMediaToken in the {@value #TOKEN_HEADER} header. A 200 response validates the token, for as long as its
+ * {@code Cache-Control max-age}, or else its {@code Expires} header, allows. Any other 4xx response rejects it.
+ * <p>
+ * A batch validation is a single {@code GET} of the service endpoint with the comma separated {@code videoIds} query
+ * parameter, and its 200 response lists the validated video identifiers, the other ones being rejected:
+ * <pre>
+ * { "validated": [ "7A4A90159E09", "3F2B6D8C1A44" ] }
+ * </pre>
+ * <p>
+ * Every request has explicit connect and read timeouts. The response is always read to its end and closed, rather than
+ * disconnected, so the keep-alive connection goes back to the connection pool of {@link java.net.HttpURLConnection}
+ * and is reused by the next request to the same host.
+ * <p>
+ * The validation is idempotent, so a connection failure, a timeout, a 5xx or a 429 response is retried, after an
+ * exponential backoff with full jitter, so the clients retrying after a brownout do not all come back at once.
+ * A {@code Retry-After} longer than the maximum backoff is not waited for. A 200 response which is not a validation
+ * response, e.g. the page of a captive portal, is neither retried nor counted as a failure. All the validations share a
+ * {@link com.brightcove.utils.CircuitBreaker}: once the service keeps failing, validations fail fast without any
+ * request, until a trial request succeeds again.
+ * <p>
+ * The class does not depend on Android, so it can be load tested against a local stub server.
+ * <p>
+ * Example:<br>
+ * {@code long maxAgeMillis = new HttpValidationClient(endpoint).newCall(videoId, shortMediaToken).execute(); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.delegates.VideoDelegate
+ * @since 1.0
+ */
+public class HttpValidationClient implements IValidationClient {
+    /**
+     * The request header carrying the ShortMediaToken
+     * @since 1.0
+     */
+    public static final String TOKEN_HEADER = "X-Short-Media-Token";
+    /**
+     * The number of attempts of a validation, including the first one, when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    // The backoff before the first retry is up to the base backoff, doubling for every further retry up to the maximum
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 4000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String MAX_AGE = "max-age=";
+
+    private final String endpoint;
+    private final CircuitBreaker circuitBreaker;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * Constructs a new HttpValidationClient with the default retry policy and circuit breaker
+     * @param endpoint the url of the validation service
+     * @since 1.0
+     */
+    public HttpValidationClient(String endpoint) {
+        this(endpoint, new CircuitBreaker(), DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Constructs a new HttpValidationClient with an explicit retry policy and circuit breaker
+     * @param endpoint the url of the validation service
+     * @param circuitBreaker the circuit breaker tracking the health of the validation service
+     * @param maxAttempts the number of attempts of a validation, including the first one
+     * @since 1.0
+     */
+    public HttpValidationClient(String endpoint, CircuitBreaker circuitBreaker, int maxAttempts) {
+        this.endpoint = endpoint;
+        this.circuitBreaker = circuitBreaker;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Gets the circuit breaker tracking the health of the validation service
+     * @return the circuit breaker
+     * @since 1.0
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Creates a validation of the token for the video
+     * @param videoId the video identifier of the video to validate
+     * @param shortMediaToken the AdobePass ShortMediaToken to validate
+     * @return the validation call
+     * @since 1.0
+     */
+    @Override
+    public Call<Long> newCall(final String videoId, String shortMediaToken) {
+        return new HttpCall<Long>(shortMediaToken) {
+            @Override
+            protected String getQuery() throws IOException {
+                return "videoId=" + URLEncoder.encode(videoId, "UTF-8");
+            }
+
+            @Override
+            protected Long readResponse(HttpURLConnection connection, InputStream body) {
+                return getMaxAgeMillis(connection);
+            }
+        };
+    }
+
+    /**
+     * Creates a validation of the token for a batch of videos, validated by a single request
+     * @param videoIds the video identifiers of the videos to validate
+     * @param shortMediaToken the AdobePass ShortMediaToken to validate
+     * @return the validation call
+     * @since 1.0
+     */
+    @Override
+    public Call<Map<String, Long>> newBatchCall(final List<String> videoIds, String shortMediaToken) {
+        return new HttpCall<Map<String, Long>>(shortMediaToken) {
+            @Override
+            protected String getQuery() throws IOException {
+                StringBuilder query = new StringBuilder("videoIds=");
+                for( int i = 0; i < videoIds.size(); i++ ) {
+                    query.append(i > 0 ? "," : "").append(URLEncoder.encode(videoIds.get(i), "UTF-8"));
+                }
+                return query.toString();
+            }
+
+            @Override
+            protected Map<String, Long> readResponse(HttpURLConnection connection, InputStream body) throws IOException {
+                Set<String> requested = new HashSet<String>(videoIds);
+                long maxAgeMillis = getMaxAgeMillis(connection);
+                Map<String, Long> validated = new HashMap<String, Long>();
+                JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+                try {
+                    reader.beginObject();
+                    while( reader.hasNext() ) {
+                        if( !"validated".equals(reader.nextName()) ) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginArray();
+                        while( reader.hasNext() ) {
+                            String videoId = reader.nextString();
+                            // Only the requested videos can be validated
+                            if( requested.contains(videoId) ) {
+                                validated.put(videoId, maxAgeMillis);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    reader.endObject();
+                }
+                catch( MalformedJsonException mje ) {
+                    throw new MalformedResponseException("Malformed batch validation response", mje);
+                }
+                catch( IllegalStateException ise ) {
+                    throw new MalformedResponseException("Malformed batch validation response", ise);
+                }
+                return validated;
+            }
+        };
+    }
+
+    /**
+     * Gets how long a validation response is valid for, from its {@code Cache-Control max-age},
+     * or else from its {@code Expires} header relative to its {@code Date} header.
+     * A {@code no-store} or {@code no-cache} directive wins over any {@code max-age}, wherever it is in the header
+     * @param connection the connection of the validation response
+     * @return the time the response is valid for, or 0 if the response gives none
+     */
+    private static long getMaxAgeMillis(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        long maxAgeMillis = -1;
+        if( cacheControl != null ) {
+            for( String directive : cacheControl.split(",") ) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if( directive.equals("no-store") || directive.equals("no-cache") ) {
+                    return 0;
+                }
+                if( directive.startsWith(MAX_AGE) ) {
+                    try {
+                        maxAgeMillis = Math.max(0, Long.parseLong(directive.substring(MAX_AGE.length())) * 1000);
+                    }
+                    catch( NumberFormatException nfe ) {
+                        maxAgeMillis = 0;
+                    }
+                }
+            }
+        }
+        if( maxAgeMillis >= 0 ) {
+            return maxAgeMillis;
+        }
+        long expiration = connection.getExpiration();
+        if( expiration == 0 ) {
+            return 0;
+        }
+        long date = connection.getDate();
+        return Math.max(0, expiration - (date != 0 ? date : System.currentTimeMillis()));
+    }
+
+    /**
+     * Gets the delay of a {@code Retry-After} header given in seconds
+     * @param connection the connection of the response
+     * @return the delay, or 0 if none
+     */
+    private static long getRetryAfterMillis(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if( retryAfter == null ) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        }
+        catch( NumberFormatException nfe ) {
+            // An http date is not worth waiting for
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Reads a response body to its end and closes it, so the connection can be reused
+     * @param body the response body, or null
+     * @throws IOException if the body could not be read
+     */
+    private static void drain(InputStream body) throws IOException {
+        if( body == null ) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while( body.read(buffer) != -1 ) {
+                // Discarded, only the status and the headers of the response are used
+            }
+        }
+        finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Internal Call class validating a token over HTTP, with retries
+     * @param <T> the type of the validation result
+     * @since 1.0
+     */
+    private abstract class HttpCall<T> implements Call<T> {
+        private final String shortMediaToken;
+        private volatile boolean isCancelled = false;
+        // The connection of the running request, disconnected to abort it
+        private volatile HttpURLConnection connection;
+
+        public HttpCall(String shortMediaToken) {
+            this.shortMediaToken = shortMediaToken;
+        }
+
+        /**
+         * Gets the query parameters of the request, identifying the videos to validate
+         * @return the url encoded query
+         * @throws IOException if the query could not be encoded
+         */
+        protected abstract String getQuery() throws IOException;
+
+        /**
+         * Reads the validation result of a 200 response
+         * @param connection the connection of the response
+         * @param body the response body, closed by the caller
+         * @return the validation result
+         * @throws IOException if the response could not be read,
+         *                     or MalformedResponseException if the response is not a validation response
+         */
+        protected abstract T readResponse(HttpURLConnection connection, InputStream body) throws IOException;
+
+        @Override
+        public T execute() throws IOException {
+            if( !circuitBreaker.allowRequest() ) {
+                throw new IOException("Validation service unavailable");
+            }
+            try {
+                T result = executeWithRetries();
+                circuitBreaker.onSuccess();
+                return result;
+            }
+            catch( RejectedException re ) {
+                // The service is healthy, the token is not
+                circuitBreaker.onSuccess();
+                throw re;
+            }
+            catch( MalformedResponseException mre ) {
+                // The service answered, so it is reachable, and a retry would get the same answer
+                circuitBreaker.onSuccess();
+                throw mre;
+            }
+            catch( IOException ioe ) {
+                if( isCancelled ) {
+                    circuitBreaker.onIgnored();
+                }
+                else {
+                    circuitBreaker.onFailure();
+                }
+                throw ioe;
+            }
+            catch( RuntimeException re ) {
+                circuitBreaker.onIgnored();
+                throw re;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            isCancelled = true;
+            HttpURLConnection runningConnection = connection;
+            if( runningConnection != null ) {
+                runningConnection.disconnect();
+            }
+            synchronized(this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Runs the attempts of the validation, backing off between them
+         * @return the validation result
+         * @throws IOException if the validation was rejected, or the last attempt failed
+         */
+        private T executeWithRetries() throws IOException {
+            for( int attempt = 1; ; attempt++ ) {
+                try {
+                    return request();
+                }
+                catch( RetryableException re ) {
+                    if( attempt >= maxAttempts ) {
+                        throw re;
+                    }
+                    // Full jitter, between none and the exponential backoff
+                    long backoffMillis = (long) (random.nextDouble() * Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1)));
+                    long delayMillis = Math.max(backoffMillis, re.retryAfterMillis);
+                    if( delayMillis > MAX_BACKOFF_MILLIS ) {
+                        throw re;
+                    }
+                    backOff(delayMillis);
+                }
+            }
+        }
+
+        /**
+         * Waits before the next attempt, unless cancelled
+         * @param delayMillis the time to wait
+         * @throws InterruptedIOException if cancelled, or interrupted, while waiting
+         */
+        private synchronized void backOff(long delayMillis) throws InterruptedIOException {
+            long deadline = System.nanoTime() + delayMillis * 1000000L;
+            try {
+                long remainingMillis = delayMillis;
+                while( !isCancelled && remainingMillis > 0 ) {
+                    wait(remainingMillis);
+                    remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+                }
+            }
+            catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Validation interrupted");
+            }
+            checkCancelled();
+        }
+
+        /**
+         * Makes a single validation request
+         * @return the validation result
+         * @throws IOException if the validation was rejected, or the request failed
+         */
+        private T request() throws IOException {
+            checkCancelled();
+            String url = endpoint + (endpoint.indexOf('?') < 0 ? "?" : "&") + getQuery();
+            HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            urlConnection.setRequestProperty(TOKEN_HEADER, shortMediaToken);
+            connection = urlConnection;
+            try {
+                // Cancelled before the connection was published, so never disconnected
+                checkCancelled();
+                int responseCode = urlConnection.getResponseCode();
+                if( responseCode == HttpURLConnection.HTTP_OK ) {
+                    InputStream body = urlConnection.getInputStream();
+                    try {
+                        return readResponse(urlConnection, body);
+                    }
+                    finally {
+                        drain(body);
+                    }
+                }
+                drain(responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? urlConnection.getInputStream() : urlConnection.getErrorStream());
+                if( responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR ) {
+                    throw new RetryableException("Validation service error " + responseCode, getRetryAfterMillis(urlConnection));
+                }
+                throw new RejectedException("Validation rejected " + responseCode);
+            }
+            catch( RetryableException re ) {
+                throw re;
+            }
+            catch( RejectedException re ) {
+                throw re;
+            }
+            catch( MalformedResponseException mre ) {
+                throw mre;
+            }
+            catch( IOException ioe ) {
+                // The failed connection is not reused
+                urlConnection.disconnect();
+                checkCancelled();
+                throw new RetryableException(ioe.getMessage(), 0);
+            }
+            finally {
+                connection = null;
+            }
+        }
+
+        /**
+         * Fails the validation if cancelled
+         * @throws InterruptedIOException if cancelled
+         */
+        private void checkCancelled() throws InterruptedIOException {
+            if( isCancelled ) {
+                throw new InterruptedIOException("Validation cancelled");
+            }
+        }
+    }
+
+    /**
+     * Internal exception class of a failed request which may be retried
+     * @since 1.0
+     */
+    private static class RetryableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        public RetryableException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /**
+     * Internal exception class of a 200 response which is not a validation response, e.g. a captive portal page,
+     * which is neither retried nor counted as a failure of the validation service
+     * @since 1.0
+     */
+    private static class MalformedResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedResponseException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Internal exception class of a token rejected by the validation service
+     * @since 1.0
+     */
+    private static class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
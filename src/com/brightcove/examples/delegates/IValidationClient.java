@@ -0,0 +1,56 @@
+package com.brightcove.examples.delegates;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface for the client of the validation and video retrieval service, validating the AdobePass ShortMediaToken
+ * of a video, or of a batch of videos, before they are played
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.delegates.HttpValidationClient
+ * @since 1.0
+ */
+public interface IValidationClient {
+    /**
+     * Interface for a single validation request, which can be cancelled from another thread while running
+     * @param <T> the type of the validation result
+     * @since 1.0
+     */
+    interface Call<T> {
+        /**
+         * Runs the validation, blocking until done. Must not be called from the main UI thread
+         * @return the validation result
+         * @throws IOException if the token was rejected, the service is unavailable, or the call was cancelled
+         * @since 1.0
+         */
+        T execute() throws IOException;
+
+        /**
+         * Cancels the validation, aborting its network request if running
+         * @since 1.0
+         */
+        void cancel();
+    }
+
+    /**
+     * Creates a validation of the token for the video, to be executed
+     * @param videoId the video identifier of the video to validate
+     * @param shortMediaToken the AdobePass ShortMediaToken to validate
+     * @return the validation call, resulting in how long the validation stays valid for, in milliseconds,
+     * or 0 if it must not be reused
+     * @since 1.0
+     */
+    Call<Long> newCall(String videoId, String shortMediaToken);
+
+    /**
+     * Creates a validation of the token for a batch of videos, validated by a single request, to be executed
+     * @param videoIds the video identifiers of the videos to validate
+     * @param shortMediaToken the AdobePass ShortMediaToken to validate
+     * @return the validation call, resulting in how long the validation of each validated video stays valid for,
+     * in milliseconds, the videos missing from the result being rejected
+     * @since 1.0
+     */
+    Call<Map<String, Long>> newBatchCall(List<String> videoIds, String shortMediaToken);
+}
@@ -0,0 +1,50 @@
+package com.brightcove.examples.delegates;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validation client used while no validation service is configured, validating every token without any request,
+ * so the ShortMediaToken never leaves the device.
+ * <p>
+ * Its validations are never reused, so the videos are validated again once a validation service is configured
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.delegates.HttpValidationClient
+ * @since 1.0
+ */
+public class PassThroughValidationClient implements IValidationClient {
+
+    @Override
+    public Call<Long> newCall(String videoId, String shortMediaToken) {
+        return new Call<Long>() {
+            @Override
+            public Long execute() {
+                return 0L;
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    @Override
+    public Call<Map<String, Long>> newBatchCall(final List<String> videoIds, String shortMediaToken) {
+        return new Call<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> execute() {
+                Map<String, Long> validated = new HashMap<String, Long>();
+                for( String videoId : videoIds ) {
+                    validated.put(videoId, 0L);
+                }
+                return validated;
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+}
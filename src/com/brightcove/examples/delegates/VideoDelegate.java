@@ -1,25 +1,54 @@
 package com.brightcove.examples.delegates;
 
+import android.content.Context;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import com.brightcove.auth.model.IVideoItem;
+import com.brightcove.examples.R;
 import com.brightcove.examples.model.VideoPlaylistFactory;
 import com.brightcove.player.event.EventEmitter;
 import com.brightcove.player.model.Video;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles the validation and retrieval of the authorized video.
  * It uses an internal AsyncTask to process the validation and retrieving the video,
  * and then uses the {@link com.brightcove.player.event.EventEmitter} to emit the GOT_VIDEO event
+ * <p>
+ * The AsyncTasks of all the VideoDelegate instances run on a dedicated executor with a bounded number of threads,
+ * so video requests never wait behind other AsyncTasks. A VideoDelegate only ever resolves its latest requested video:
+ * requesting another video cancels the previous request, aborting its network call, and the cancelled request
+ * emits nothing, so rapid requests for different videos always end with the last requested video
+ * <p>
+ * The videos validated with a ShortMediaToken are cached in the {@link com.brightcove.examples.delegates.VideoResolutionCache}
+ * for as long as the validation service response allows, so replaying a video skips the validation request.
+ * The validation goes through a pluggable {@link com.brightcove.examples.delegates.IValidationClient}, which by default
+ * is an {@link com.brightcove.examples.delegates.HttpValidationClient} of the validationUrl resource, shared by all the
+ * VideoDelegate instances so they all fail fast while the validation service is unhealthy. While the validationUrl
+ * resource is empty, the tokens are not validated, and never sent anywhere.
+ * <p>
+ * A list of videos, e.g. of a row of the video grid, is resolved by {@link #getVideos(java.util.List, String)} with batch
+ * requests of up to {@link #MAX_BATCH_SIZE} videos each, run a few at a time, and a single GOT_VIDEOS event then carries
+ * the video of every resolved video identifier, and the error of every other one
  *
  * @author Maximilian Nyman (max.nyman@anvilcreative.com)
  * @see com.brightcove.player.event.EventEmitter#on(String, com.brightcove.player.event.EventListener)
@@ -29,27 +58,93 @@ public class VideoDelegate {
 
     public static final String GOT_VIDEO = "GotVideo";
     public static final String VIDEO_ERROR = "VideoError";
+    public static final String GOT_VIDEOS = "GotVideos";
+
+    /**
+     * The maximum number of videos validated by a single batch request
+     * @since 1.0
+     */
+    public static final int MAX_BATCH_SIZE = 25;
+
+    // The number of video requests resolved in parallel, across all the VideoDelegate instances
+    private static final int VIDEO_THREADS = 2;
+    // The number of batch requests run in parallel, across all the VideoDelegate instances
+    private static final int BATCH_THREADS = 2;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    // The executor resolving the video requests of all the VideoDelegate instances
+    private static final ThreadPoolExecutor VIDEO_EXECUTOR = createExecutor(VIDEO_THREADS, "VideoDelegate #");
+    // The executor running the batch requests of all the VideoDelegate instances, apart from the video requests
+    // so a batch never holds up the video being played
+    private static final ThreadPoolExecutor BATCH_EXECUTOR = createExecutor(BATCH_THREADS, "VideoDelegate batch #");
+    // The validation client of the VideoDelegate instances without an explicit one, sharing its circuit breaker.
+    // Created from the validationUrl resource on first use
+    private static IValidationClient defaultValidationClient;
 
     // Used to emits events when video actions are completed
     private EventEmitter eventEmitter;
+    // The client validating the ShortMediaToken of the protected videos
+    private final IValidationClient validationClient;
+    // The latest video request, which is cancelled by the next one. Only accessed from the main UI thread
+    private GetVideoTask currentTask;
+    // The running batches. Only accessed from the main UI thread
+    private final Set<VideoBatch> batches = new HashSet<VideoBatch>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructs a new VideoDelegate instance to use for validate and retrieve the selected video,
+     * validating with the service configured by the validationUrl resource
+     * @param context the context to read the validationUrl resource from
+     * @param eventEmitter the emitter to use for dispatching video events
+     * @since 1.0
+     */
+    public VideoDelegate(Context context, EventEmitter eventEmitter) {
+        this(eventEmitter, getDefaultValidationClient(context));
+    }
 
     /**
-     * Constructs a new VideoDelegate instance to use for validate and retrieve the selected video
+     * Constructs a new VideoDelegate instance to use for validate and retrieve the selected video,
+     * with an explicit validation service client
      * @param eventEmitter the emitter to use for dispatching video events
+     * @param validationClient the client validating the ShortMediaToken of the protected videos
      * @since 1.0
      */
-    public VideoDelegate(EventEmitter eventEmitter) {
+    public VideoDelegate(EventEmitter eventEmitter, IValidationClient validationClient) {
         this.eventEmitter = eventEmitter;
+        this.validationClient = validationClient;
     }
 
     /**
-     * Starts the validation and retrieval process
+     * Gets the validation client shared by the VideoDelegate instances without an explicit one:
+     * an {@link com.brightcove.examples.delegates.HttpValidationClient} of the validationUrl resource, or a
+     * {@link com.brightcove.examples.delegates.PassThroughValidationClient} making no request if it is empty
+     * @param context the context to read the validationUrl resource from
+     * @return the shared validation client
+     */
+    private static synchronized IValidationClient getDefaultValidationClient(Context context) {
+        if( defaultValidationClient == null ) {
+            String validationUrl = context.getResources().getString(R.string.validationUrl);
+            if( validationUrl.length() > 0 ) {
+                defaultValidationClient = new HttpValidationClient(validationUrl);
+            }
+            else {
+                defaultValidationClient = new PassThroughValidationClient();
+            }
+        }
+        return defaultValidationClient;
+    }
+
+    /**
+     * Starts the validation and retrieval process, cancelling the previous one if still running.
+     * Must be called from the main UI thread
      * @param videoId the video identifier of the authorized video to retrieve
      * @param shortMediaToken AdobePass ShortMediaToken to validate
      * @since 1.0
      */
     public void getVideo(String videoId, String shortMediaToken) {
-        new GetVideoTask().execute(videoId,shortMediaToken);
+        cancelCurrentTask();
+        currentTask = new GetVideoTask();
+        currentTask.executeOnExecutor(VIDEO_EXECUTOR, videoId, shortMediaToken);
     }
 
     /**
@@ -62,18 +157,86 @@ public class VideoDelegate {
         getVideo(videoItem.getVideoId(), shortMediaToken);
     }
 
+    /**
+     * Starts the validation and retrieval process of a list of videos, in batches, emitting a single GOT_VIDEOS event
+     * once all the videos are resolved. The event holds the {@code "videos"} map of the video of each resolved video
+     * identifier, the {@code "errors"} map of the error message of each other video identifier, and the requested
+     * {@code "videoItems"}. Must be called from the main UI thread
+     * @param videoItems the authorized video items to retrieve
+     * @param shortMediaToken AdobePass ShortMediaToken to validate, or null for unprotected video items
+     * @since 1.0
+     */
+    public void getVideos(List<? extends IVideoItem> videoItems, String shortMediaToken) {
+        VideoBatch batch = new VideoBatch(videoItems, shortMediaToken);
+        batches.add(batch);
+        batch.start();
+    }
+
+    /**
+     * Cancels the latest validation and retrieval process, and all the running batches, so they emit nothing.
+     * Must be called from the main UI thread
+     * @since 1.0
+     */
+    public void cancel() {
+        cancelCurrentTask();
+        for( VideoBatch batch : batches ) {
+            batch.cancel();
+        }
+        batches.clear();
+        BATCH_EXECUTOR.purge();
+    }
+
+    /**
+     * Cancels the latest validation and retrieval process, if still running
+     */
+    private void cancelCurrentTask() {
+        if( currentTask != null ) {
+            currentTask.abort();
+            currentTask = null;
+            // Drops the cancelled request from the queue, if not yet started
+            VIDEO_EXECUTOR.purge();
+        }
+    }
+
+    /**
+     * Creates an executor resolving video requests, with a bounded number of named threads
+     * @param threads the number of threads
+     * @param namePrefix the name prefix of the threads
+     * @return the executor
+     */
+    private static ThreadPoolExecutor createExecutor(int threads, final String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, namePrefix + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Internal AsyncTask class to handle the validation and retrieval of the authorized video
      * @since 1.0
      */
     private class GetVideoTask extends AsyncTask<String, Void, VideoResult> {
+        // The running validation, cancelled to abort its network request
+        private volatile IValidationClient.Call<Long> call;
+
         /**
-         * Fake url to the validation and video retrieval service.
-         * This should be replaced with the actual service endpoint.
-         * @see #getVideo(String, String)
+         * Cancels the task, and aborts its validation request if running, which an interrupt alone would not unblock
          * @since 1.0
          */
-        private final String FAKE_VALIDATION_AND_VIDEO_SERVICE = "https://goggle.com";
+        public void abort() {
+            cancel(true);
+            IValidationClient.Call<Long> runningCall = call;
+            if( runningCall != null ) {
+                runningCall.cancel();
+            }
+        }
 
         /**
          * Background process for validating and retrieving the authorized video
@@ -89,12 +252,16 @@ public class VideoDelegate {
         }
 
         /**
-         * Emits the GOT_VIDEO event by using the {@link com.brightcove.player.event.EventEmitter}
+         * Emits the GOT_VIDEO event by using the {@link com.brightcove.player.event.EventEmitter}.
+         * Never called once the task is cancelled
          * @param videoResult the VideoResult object containing the videoUrl and validation status
          * @since 1.0
          */
         @Override
         protected void onPostExecute(VideoResult videoResult) {
+            if( currentTask == this ) {
+                currentTask = null;
+            }
             Map<String,Object> map = new HashMap<String, Object>();
             if( videoResult.isSuccessful() ) {
                 Video video = Video.createVideo(videoResult.getVideoUrl());
@@ -102,6 +269,7 @@ public class VideoDelegate {
                 eventEmitter.emit(GOT_VIDEO, map);
             }
             else {
+                map.put("errorMessage", videoResult.getErrorMessage());
                 eventEmitter.emit(VIDEO_ERROR, map);
             }
         }
@@ -114,31 +282,219 @@ public class VideoDelegate {
          * @since 1.0
          */
         private VideoResult getVideo(String videoId, String shortMediaToken) {
+            VideoResolutionCache resolutionCache = VideoResolutionCache.getInstance();
+            // How long the validation is valid for, as given by the validation service, or 0 if not to be cached
+            long maxAgeMillis = 0;
+            if( shortMediaToken != null ) {
+                String cachedVideoUrl = resolutionCache.get(videoId, shortMediaToken);
+                if( cachedVideoUrl != null ) {
+                    return new VideoResult(cachedVideoUrl, null);
+                }
+                call = validationClient.newCall(videoId, shortMediaToken);
+                try {
+                    // Cancelled before the call was published, so never aborted
+                    if( isCancelled() ) {
+                        return null;
+                    }
+                    maxAgeMillis = call.execute();
+                }
+                catch( IOException ioe ) {
+                    Log.d("[VideoDelegate#getVideo]", "Validation failed: " + ioe.getMessage());
+                    return new VideoResult(null, ioe.getMessage());
+                }
+                finally {
+                    call = null;
+                }
+            }
+
+            if( isCancelled() ) {
+                return null;
+            }
+            // Getting the video url from the memoized index of the embedded resource
+            String videoUrl = VideoPlaylistFactory.getVideoUrl(videoId);
+            if( shortMediaToken != null ) {
+                resolutionCache.put(videoId, shortMediaToken, videoUrl, maxAgeMillis);
+            }
+            return new VideoResult(videoUrl, videoUrl == null ? "Unknown video " + videoId : null);
+        }
+    }
+
+    /**
+     * Internal class resolving a list of videos, chunked into batch requests run on the batch executor,
+     * and emitting the GOT_VIDEOS event once all the batch requests are done
+     * @since 1.0
+     */
+    private class VideoBatch {
+        private final List<? extends IVideoItem> videoItems;
+        private final String shortMediaToken;
+        // The resolved video urls and the error messages, by video identifier, filled by the batch requests
+        private final Map<String, String> videoUrls = new ConcurrentHashMap<String, String>();
+        private final Map<String, String> errors = new ConcurrentHashMap<String, String>();
+        private final List<Future<?>> requests = new ArrayList<Future<?>>();
+        private final Set<IValidationClient.Call<Map<String, Long>>> calls =
+                Collections.synchronizedSet(new HashSet<IValidationClient.Call<Map<String, Long>>>());
+        private volatile boolean isCancelled = false;
+        // The number of batch requests still running. Only accessed from the main UI thread
+        private int pendingRequests;
+
+        public VideoBatch(List<? extends IVideoItem> videoItems, String shortMediaToken) {
+            this.videoItems = videoItems;
+            this.shortMediaToken = shortMediaToken;
+        }
+
+        /**
+         * Starts a batch request for every chunk of up to MAX_BATCH_SIZE distinct video identifiers
+         */
+        public void start() {
+            Set<String> videoIds = new LinkedHashSet<String>();
+            for( IVideoItem videoItem : videoItems ) {
+                if( videoItem.getVideoId() != null ) {
+                    videoIds.add(videoItem.getVideoId());
+                }
+            }
+            List<String> distinctVideoIds = new ArrayList<String>(videoIds);
+            for( int start = 0; start < distinctVideoIds.size(); start += MAX_BATCH_SIZE ) {
+                final List<String> chunk = distinctVideoIds.subList(start, Math.min(start + MAX_BATCH_SIZE, distinctVideoIds.size()));
+                pendingRequests++;
+                requests.add(BATCH_EXECUTOR.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            resolve(chunk);
+                        }
+                        finally {
+                            handler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    onRequestDone();
+                                }
+                            });
+                        }
+                    }
+                }));
+            }
+            if( pendingRequests == 0 ) {
+                complete();
+            }
+        }
+
+        /**
+         * Cancels the batch requests, aborting their network requests if running
+         */
+        public void cancel() {
+            isCancelled = true;
+            for( Future<?> request : requests ) {
+                request.cancel(true);
+            }
+            synchronized(calls) {
+                for( IValidationClient.Call<Map<String, Long>> call : calls ) {
+                    call.cancel();
+                }
+            }
+        }
+
+        /**
+         * Resolves a chunk of video identifiers, from the resolution cache, or else by a single batch validation.
+         * Run on the batch executor
+         * @param videoIds the video identifiers of the chunk
+         */
+        private void resolve(List<String> videoIds) {
+            VideoResolutionCache resolutionCache = VideoResolutionCache.getInstance();
+            List<String> uncachedVideoIds = new ArrayList<String>();
+            Map<String, Long> validated = null;
             if( shortMediaToken != null ) {
+                for( String videoId : videoIds ) {
+                    String cachedVideoUrl = resolutionCache.get(videoId, shortMediaToken);
+                    if( cachedVideoUrl != null ) {
+                        videoUrls.put(videoId, cachedVideoUrl);
+                    }
+                    else {
+                        uncachedVideoIds.add(videoId);
+                    }
+                }
+                if( uncachedVideoIds.isEmpty() ) {
+                    return;
+                }
+                IValidationClient.Call<Map<String, Long>> call = validationClient.newBatchCall(uncachedVideoIds, shortMediaToken);
+                calls.add(call);
                 try {
-                    //Fake URL request - Should be replaced with a real validation and video request
-                    URL url = new URL(FAKE_VALIDATION_AND_VIDEO_SERVICE);
-                    HttpsURLConnection urlConnection = (HttpsURLConnection) url.openConnection();
-                    urlConnection.connect();
-                    try {
-                        InputStream in = new BufferedInputStream(urlConnection.getInputStream());
-                    } finally {
-                        urlConnection.disconnect();
+                    // Cancelled before the call was published, so never aborted
+                    if( isCancelled ) {
+                        return;
+                    }
+                    validated = call.execute();
+                }
+                catch( IOException ioe ) {
+                    Log.d("[VideoDelegate#getVideos]", "Batch validation failed: " + ioe.getMessage());
+                    for( String videoId : uncachedVideoIds ) {
+                        errors.put(videoId, String.valueOf(ioe.getMessage()));
                     }
+                    return;
+                }
+                finally {
+                    calls.remove(call);
+                }
+            }
+            else {
+                uncachedVideoIds.addAll(videoIds);
+            }
+
+            for( String videoId : uncachedVideoIds ) {
+                if( isCancelled ) {
+                    return;
                 }
-                catch (MalformedURLException murle) {
-                    // Currently only loading a FAKE url to mimic the validation and retrieval request
-                    Log.d("[VideoDelegate#getVideo]", murle.getMessage());
+                if( validated != null && !validated.containsKey(videoId) ) {
+                    errors.put(videoId, "Validation rejected");
+                    continue;
                 }
-                catch (IOException ioe) {
-                    // Currently only loading a FAKE url to mimic the validation and retrieval request
-                    Log.d("[VideoDelegate#getVideo]", ioe.getMessage());
+                // Getting the video url from the memoized index of the embedded resource
+                String videoUrl = VideoPlaylistFactory.getVideoUrl(videoId);
+                if( videoUrl == null ) {
+                    errors.put(videoId, "Unknown video " + videoId);
+                    continue;
+                }
+                videoUrls.put(videoId, videoUrl);
+                if( validated != null ) {
+                    resolutionCache.put(videoId, shortMediaToken, videoUrl, validated.get(videoId));
                 }
             }
+        }
+
+        /**
+         * Completes the batch once its last batch request is done. Run on the main UI thread
+         */
+        private void onRequestDone() {
+            if( --pendingRequests == 0 ) {
+                complete();
+            }
+        }
 
-            // Getting the video url from an embedded resource
-            Map<String,String> lookup = VideoPlaylistFactory.getVideos();
-            return new VideoResult(lookup.get(videoId));
+        /**
+         * Emits the GOT_VIDEOS event by using the {@link com.brightcove.player.event.EventEmitter}, unless cancelled.
+         * Run on the main UI thread
+         */
+        private void complete() {
+            batches.remove(this);
+            if( isCancelled ) {
+                return;
+            }
+            Map<String, Video> videos = new LinkedHashMap<String, Video>();
+            Map<String, String> videoErrors = new LinkedHashMap<String, String>();
+            for( IVideoItem videoItem : videoItems ) {
+                String videoId = videoItem.getVideoId();
+                String videoUrl = videoId != null ? videoUrls.get(videoId) : null;
+                if( videoUrl != null ) {
+                    videos.put(videoId, Video.createVideo(videoUrl));
+                }
+                else {
+                    videoErrors.put(videoId, errors.containsKey(videoId) ? errors.get(videoId) : "Not resolved");
+                }
+            }
+            Map<String,Object> map = new HashMap<String, Object>();
+            map.put("videos", videos);
+            map.put("errors", videoErrors);
+            map.put("videoItems", videoItems);
+            eventEmitter.emit(GOT_VIDEOS, map);
         }
     }
 
@@ -148,18 +504,22 @@ public class VideoDelegate {
      */
     private class VideoResult {
         private String videoUrl;
+        private String errorMessage;
 
         /**
          * Constructs a new VideoResult with the retrieved video url.
          * The url would be null if the validation failed
          * @param videoUrl the url of the retrieved video url, which would be null if the validation failed
+         * @param errorMessage the reason of the failure, or null
          * @since 1.0
          */
-        public VideoResult(String videoUrl) {
+        public VideoResult(String videoUrl, String errorMessage) {
             this.videoUrl = videoUrl;
+            this.errorMessage = errorMessage;
         }
 
         public String getVideoUrl() { return videoUrl; }
+        public String getErrorMessage() { return errorMessage; }
         public Boolean isSuccessful() { return videoUrl != null; }
     }
 }
\ No newline at end of file
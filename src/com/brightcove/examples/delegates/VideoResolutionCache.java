@@ -0,0 +1,162 @@
+package com.brightcove.examples.delegates;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Process wide in-memory LRU cache of the validated video resolutions, i.e. the stream url a validated
+ * ShortMediaToken resolved a video to, keyed by the video identifier plus a fingerprint of the token.
+ * <p>
+ * Each resolution is held until the expiry given by the validation service response, so replaying a video
+ * with a token still valid skips the validation request entirely. The token itself is never kept, only its
+ * SHA-1 fingerprint. The expiry is measured on the elapsed realtime clock, so changing the wall clock neither
+ * extends nor cuts short a resolution. The cache must be cleared on logout, as the resolutions are only valid
+ * for the signed in user.
+ * <p>
+ * Example:<br>
+ * {@code String videoUrl = VideoResolutionCache.getInstance().get(videoId, shortMediaToken); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.delegates.VideoDelegate
+ * @since 1.0
+ */
+public class VideoResolutionCache {
+    /**
+     * The maximum number of cached resolutions used when no explicit limit is set
+     * @since 1.0
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    // Singleton static instance variable
+    private static volatile VideoResolutionCache instance;
+    // The underlying LRU cache, by video identifier and token fingerprint
+    private final LruCache<String, Resolution> cache;
+
+    /**
+     * Private constructor to construct a new VideoResolutionCache instance.
+     * Only called the very first time the getInstance is invoked
+     * @param maxEntries the maximum number of cached resolutions
+     * @since 1.0
+     */
+    private VideoResolutionCache(int maxEntries) {
+        cache = new LruCache<String, Resolution>(maxEntries);
+    }
+
+    /**
+     * Static method to get or instantiate the singleton VideoResolutionCache instance,
+     * holding at most {@link #DEFAULT_MAX_ENTRIES} resolutions
+     * @return the VideoResolutionCache instance
+     * @since 1.0
+     */
+    public static VideoResolutionCache getInstance() {
+        return getInstance(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Static method to get or instantiate the singleton VideoResolutionCache instance with an explicit size.
+     * The size is only used if the instance has not already been created.
+     * @param maxEntries the maximum number of cached resolutions
+     * @return the VideoResolutionCache instance
+     * @since 1.0
+     */
+    public static VideoResolutionCache getInstance(int maxEntries) {
+        if( instance == null ) {
+            synchronized(VideoResolutionCache.class) {
+                if( instance == null ) {
+                    instance = new VideoResolutionCache(maxEntries);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the cached stream url of a video for a token, unless expired
+     * @param videoId the video identifier
+     * @param shortMediaToken the AdobePass ShortMediaToken the video was validated with
+     * @return the stream url, or null if not cached or expired, or if the video or the token is unknown
+     * @since 1.0
+     */
+    public String get(String videoId, String shortMediaToken) {
+        if( videoId == null || shortMediaToken == null ) {
+            return null;
+        }
+        String key = getKey(videoId, shortMediaToken);
+        Resolution resolution = cache.get(key);
+        if( resolution == null ) {
+            return null;
+        }
+        if( SystemClock.elapsedRealtime() >= resolution.expiresAt ) {
+            cache.remove(key);
+            return null;
+        }
+        return resolution.videoUrl;
+    }
+
+    /**
+     * Caches the stream url of a video validated with a token, until it expires
+     * @param videoId the video identifier
+     * @param shortMediaToken the AdobePass ShortMediaToken the video was validated with
+     * @param videoUrl the stream url
+     * @param maxAgeMillis the time the resolution stays valid for, as given by the validation service.
+     *                     Nothing is cached if not positive, nor if the video or the token is unknown
+     * @since 1.0
+     */
+    public void put(String videoId, String shortMediaToken, String videoUrl, long maxAgeMillis) {
+        if( videoId == null || shortMediaToken == null || videoUrl == null || maxAgeMillis <= 0 ) {
+            return;
+        }
+        cache.put(getKey(videoId, shortMediaToken), new Resolution(videoUrl, SystemClock.elapsedRealtime() + maxAgeMillis));
+    }
+
+    /**
+     * Removes all the cached resolutions, e.g. on logout
+     * @since 1.0
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Gets the cache key of a video and token
+     * @param videoId the video identifier
+     * @param shortMediaToken the token
+     * @return the video identifier followed by the hex encoded SHA-1 fingerprint of the token
+     */
+    private static String getKey(String videoId, String shortMediaToken) {
+        StringBuilder key = new StringBuilder(videoId).append('#');
+        try {
+            byte[] fingerprint = MessageDigest.getInstance("SHA-1").digest(shortMediaToken.getBytes("UTF-8"));
+            for( byte b : fingerprint ) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+        }
+        catch( NoSuchAlgorithmException nsae ) {
+            // Every Java platform provides SHA-1
+            throw new IllegalStateException(nsae);
+        }
+        catch( UnsupportedEncodingException uee ) {
+            // Every Java platform provides UTF-8
+            throw new IllegalStateException(uee);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Internal class holding a cached stream url and its expiry, on the elapsed realtime clock
+     * @since 1.0
+     */
+    private static class Resolution {
+        private final String videoUrl;
+        private final long expiresAt;
+
+        public Resolution(String videoUrl, long expiresAt) {
+            this.videoUrl = videoUrl;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
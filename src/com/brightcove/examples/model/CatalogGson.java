@@ -0,0 +1,47 @@
+package com.brightcove.examples.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Holder of the shared {@link com.google.gson.Gson} instance binding the catalog models.
+ * <p>
+ * A Gson instance caches the type adapter of every type it binds, so a single instance is shared by all the catalog parsing,
+ * instead of creating a new one and looking the type adapters up again for every catalog.
+ * The {@link com.brightcove.examples.model.VideoItem} and all its subclasses are bound by the reflection free
+ * {@link com.brightcove.examples.model.VideoItemTypeAdapter}.
+ * <p>
+ * Example:<br>
+ * {@code TypeAdapter<VideoItem> adapter = CatalogGson.getInstance().getAdapter(VideoItem.class); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoCatalogParser
+ * @since 1.0
+ */
+public final class CatalogGson {
+    private static volatile Gson instance;
+
+    /**
+     * Private constructor, as the class only holds the shared instance
+     */
+    private CatalogGson() {
+    }
+
+    /**
+     * Static method to get or instantiate the shared Gson instance
+     * @return the Gson instance
+     * @since 1.0
+     */
+    public static Gson getInstance() {
+        if( instance == null ) {
+            synchronized(CatalogGson.class) {
+                if( instance == null ) {
+                    instance = new GsonBuilder()
+                            .registerTypeHierarchyAdapter(VideoItem.class, new VideoItemTypeAdapter())
+                            .create();
+                }
+            }
+        }
+        return instance;
+    }
+}
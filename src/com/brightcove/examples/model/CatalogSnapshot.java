@@ -0,0 +1,377 @@
+package com.brightcove.examples.model;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read only view of the binary catalog snapshot, generated at build time from the Json catalogs
+ * by the {@code -pre-build} target of {@code custom_rules.xml}.
+ * <p>
+ * The snapshot is memory-mapped rather than read, so opening it costs the same whatever the catalog size,
+ * and only the pages actually accessed are ever loaded. The playlist items decode their fields from the
+ * snapshot on first access, and a video url is looked up by a binary search of the sorted video records,
+ * without loading the rest of the catalog.
+ * <p>
+ * The snapshot asset is mapped directly from the APK when it is stored uncompressed,
+ * and otherwise from a copy in the application cache directory, made once per build of the snapshot.
+ * <p>
+ * Example:<br>
+ * {@code CatalogSnapshot snapshot = CatalogSnapshot.open(context); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.CatalogSnapshotFormat
+ * @since 1.0
+ */
+public class CatalogSnapshot {
+    private static final String LOG_TAG = "[CatalogSnapshot]";
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int playlistCount;
+    private final int videoCount;
+    private final int stringDataOffset;
+    private final int playlistOffset;
+    private final int videoOffset;
+
+    /**
+     * Private constructor to construct a new CatalogSnapshot of a validated buffer
+     * @param buffer the snapshot buffer
+     * @param stringDataLength the number of bytes of string data
+     */
+    private CatalogSnapshot(ByteBuffer buffer, int stringDataLength) {
+        this.buffer = buffer;
+        stringCount = buffer.getInt(CatalogSnapshotFormat.STRING_COUNT_OFFSET);
+        playlistCount = buffer.getInt(CatalogSnapshotFormat.PLAYLIST_COUNT_OFFSET);
+        videoCount = buffer.getInt(CatalogSnapshotFormat.VIDEO_COUNT_OFFSET);
+        stringDataOffset = CatalogSnapshotFormat.getStringDataOffset(stringCount);
+        playlistOffset = CatalogSnapshotFormat.getPlaylistOffset(stringCount, stringDataLength);
+        videoOffset = CatalogSnapshotFormat.getVideoOffset(playlistOffset, playlistCount);
+    }
+
+    /**
+     * Opens the catalog snapshot of the application assets.
+     * Reads the asset, so must not be called from the main UI thread
+     * @param context the context to use for retrieving the snapshot asset
+     * @return the catalog snapshot, or null if the application has no valid snapshot
+     * @since 1.0
+     */
+    public static CatalogSnapshot open(Context context) {
+        try {
+            return open(map(context));
+        }
+        catch( FileNotFoundException fnfe ) {
+            Log.i(LOG_TAG, "No catalog snapshot, the Json catalogs are used");
+            return null;
+        }
+        catch( IOException ioe ) {
+            Log.e(LOG_TAG, "Unable to open the catalog snapshot: " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Opens the catalog snapshot of a buffer, after validating its header and section bounds
+     * @param buffer the snapshot buffer
+     * @return the catalog snapshot
+     * @throws IOException if the buffer is not a valid snapshot of the current version
+     * @since 1.0
+     */
+    public static CatalogSnapshot open(ByteBuffer buffer) throws IOException {
+        if( buffer.capacity() < CatalogSnapshotFormat.HEADER_SIZE
+                || buffer.getInt(CatalogSnapshotFormat.MAGIC_OFFSET) != CatalogSnapshotFormat.MAGIC ) {
+            throw new IOException("Not a catalog snapshot");
+        }
+        if( buffer.getInt(CatalogSnapshotFormat.VERSION_OFFSET) != CatalogSnapshotFormat.VERSION ) {
+            throw new IOException("Unsupported catalog snapshot version " + buffer.getInt(CatalogSnapshotFormat.VERSION_OFFSET));
+        }
+        int stringCount = buffer.getInt(CatalogSnapshotFormat.STRING_COUNT_OFFSET);
+        int playlistCount = buffer.getInt(CatalogSnapshotFormat.PLAYLIST_COUNT_OFFSET);
+        int videoCount = buffer.getInt(CatalogSnapshotFormat.VIDEO_COUNT_OFFSET);
+        if( stringCount < 0 || playlistCount < 0 || videoCount < 0
+                || CatalogSnapshotFormat.getStringDataOffset(stringCount) > buffer.capacity() ) {
+            throw new IOException("Truncated catalog snapshot");
+        }
+        int stringDataLength = buffer.getInt(CatalogSnapshotFormat.getStringDataOffset(stringCount) - 4);
+        long end = CatalogSnapshotFormat.getPlaylistOffset(stringCount, stringDataLength)
+                + (long) playlistCount * CatalogSnapshotFormat.PLAYLIST_RECORD_SIZE
+                + (long) videoCount * CatalogSnapshotFormat.VIDEO_RECORD_SIZE;
+        if( stringDataLength < 0 || end > buffer.capacity() ) {
+            throw new IOException("Truncated catalog snapshot");
+        }
+        return new CatalogSnapshot(buffer, stringDataLength);
+    }
+
+    /**
+     * Gets the number of items in the playlist
+     * @return the playlist size
+     * @since 1.0
+     */
+    public int getPlaylistSize() {
+        return playlistCount;
+    }
+
+    /**
+     * Gets the playlist item at the position. The item fields are decoded on first access
+     * @param position the playlist position
+     * @return the video item
+     * @since 1.0
+     */
+    public VideoItem getPlaylistItem(int position) {
+        if( position < 0 || position >= playlistCount ) {
+            throw new IndexOutOfBoundsException("Playlist position " + position + " of " + playlistCount);
+        }
+        return new SnapshotVideoItem(playlistOffset + position * CatalogSnapshotFormat.PLAYLIST_RECORD_SIZE);
+    }
+
+    /**
+     * Gets the number of videos in the video lookup map
+     * @return the video count
+     * @since 1.0
+     */
+    public int getVideoCount() {
+        return videoCount;
+    }
+
+    /**
+     * Gets the video url of a video, by a binary search of the video records
+     * @param videoId the video identifier
+     * @return the video url, or null if the video is unknown
+     * @since 1.0
+     */
+    public String getVideoUrl(String videoId) {
+        if( videoId == null ) {
+            return null;
+        }
+        int low = 0;
+        int high = videoCount - 1;
+        while( low <= high ) {
+            int middle = (low + high) >>> 1;
+            int record = videoOffset + middle * CatalogSnapshotFormat.VIDEO_RECORD_SIZE;
+            int comparison = getString(buffer.getInt(record + CatalogSnapshotFormat.VIDEO_VIDEO_ID)).compareTo(videoId);
+            if( comparison < 0 ) {
+                low = middle + 1;
+            }
+            else if( comparison > 0 ) {
+                high = middle - 1;
+            }
+            else {
+                return getString(buffer.getInt(record + CatalogSnapshotFormat.VIDEO_VIDEO));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a string of the string table
+     * @param index the string table index
+     * @return the string, or null for NO_STRING
+     */
+    private String getString(int index) {
+        if( index == CatalogSnapshotFormat.NO_STRING ) {
+            return null;
+        }
+        int start = buffer.getInt(CatalogSnapshotFormat.HEADER_SIZE + 4 * index);
+        int end = buffer.getInt(CatalogSnapshotFormat.HEADER_SIZE + 4 * (index + 1));
+        byte[] bytes = new byte[end - start];
+        // Reads from a duplicate, so the shared buffer position is never changed
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataOffset + start);
+        view.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        }
+        catch( UnsupportedEncodingException uee ) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Memory-maps the snapshot asset, directly from the APK if stored uncompressed, or else from a copy in the cache directory
+     * @param context the context to use for retrieving the snapshot asset
+     * @return the mapped snapshot
+     * @throws IOException if the snapshot asset is missing, or could not be mapped
+     */
+    private static MappedByteBuffer map(Context context) throws IOException {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getAssets().openFd(CatalogSnapshotFormat.ASSET_NAME);
+        }
+        catch( FileNotFoundException fnfe ) {
+            // Thrown both for a missing and a compressed asset, a missing asset failing again when copied
+            return map(copy(context), 0, -1);
+        }
+        try {
+            FileInputStream in = descriptor.createInputStream();
+            try {
+                return in.getChannel().map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength());
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Memory-maps a region of a file, which stays mapped after the file is closed
+     * @param file the file to map
+     * @param offset the region offset
+     * @param length the region length, or -1 for the rest of the file
+     * @return the mapped region
+     * @throws IOException if the file could not be mapped
+     */
+    private static MappedByteBuffer map(File file, long offset, long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length < 0 ? channel.size() - offset : length);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the snapshot asset to the cache directory, unless the copy already has the same header, i.e. the same checksum
+     * @param context the context to use for retrieving the snapshot asset
+     * @return the copy of the snapshot asset
+     * @throws IOException if the snapshot asset is missing, or could not be copied
+     */
+    private static File copy(Context context) throws IOException {
+        File file = new File(context.getCacheDir(), CatalogSnapshotFormat.ASSET_NAME);
+        InputStream in = new BufferedInputStream(context.getAssets().open(CatalogSnapshotFormat.ASSET_NAME));
+        try {
+            byte[] header = new byte[CatalogSnapshotFormat.HEADER_SIZE];
+            new DataInputStream(in).readFully(header);
+            if( Arrays.equals(header, readHeader(file)) ) {
+                return file;
+            }
+            File tempFile = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(header);
+                byte[] buffer = new byte[8 * 1024];
+                int count;
+                while( (count = in.read(buffer)) != -1 ) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            finally {
+                out.close();
+            }
+            if( !tempFile.renameTo(file) ) {
+                throw new IOException("Unable to copy the catalog snapshot to " + file);
+            }
+            return file;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the header of a snapshot file
+     * @param file the snapshot file
+     * @return the header bytes, or null if the file is missing or truncated
+     */
+    private static byte[] readHeader(File file) {
+        if( !file.exists() ) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                byte[] header = new byte[CatalogSnapshotFormat.HEADER_SIZE];
+                in.readFully(header);
+                return header;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch( IOException ioe ) {
+            return null;
+        }
+    }
+
+    /**
+     * Internal VideoItem class decoding its fields from the snapshot record on first access
+     * @since 1.0
+     */
+    private class SnapshotVideoItem extends VideoItem {
+        private final int record;
+        private boolean isDecoded = false;
+
+        public SnapshotVideoItem(int record) {
+            this.record = record;
+        }
+
+        /**
+         * Decodes all the fields of the record into the video item, the first time any field is accessed
+         */
+        private synchronized void decode() {
+            if( isDecoded ) {
+                return;
+            }
+            isDecoded = true;
+            super.setVideoId(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_VIDEO_ID)));
+            super.setVideo(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_VIDEO)));
+            super.setThumbnail(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_THUMBNAIL)));
+            super.setPoster(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_POSTER)));
+            super.setTitle(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_TITLE)));
+            super.setResourceId(getString(buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_RESOURCE_ID)));
+            super.setIsProtected((buffer.getInt(record + CatalogSnapshotFormat.PLAYLIST_FLAGS) & CatalogSnapshotFormat.FLAG_PROTECTED) != 0);
+        }
+
+        @Override
+        public String getVideoId() { decode(); return super.getVideoId(); }
+
+        @Override
+        public void setVideoId(String videoId) { decode(); super.setVideoId(videoId); }
+
+        @Override
+        public String getVideo() { decode(); return super.getVideo(); }
+
+        @Override
+        public void setVideo(String videoUrl) { decode(); super.setVideo(videoUrl); }
+
+        @Override
+        public String getThumbnail() { decode(); return super.getThumbnail(); }
+
+        @Override
+        public void setThumbnail(String thumbnailUrl) { decode(); super.setThumbnail(thumbnailUrl); }
+
+        @Override
+        public String getPoster() { decode(); return super.getPoster(); }
+
+        @Override
+        public void setPoster(String posterUrl) { decode(); super.setPoster(posterUrl); }
+
+        @Override
+        public String getTitle() { decode(); return super.getTitle(); }
+
+        @Override
+        public void setTitle(String title) { decode(); super.setTitle(title); }
+
+        @Override
+        public boolean getIsProtected() { decode(); return super.getIsProtected(); }
+
+        @Override
+        public void setIsProtected(boolean isProtected) { decode(); super.setIsProtected(isProtected); }
+
+        @Override
+        public String getResourceId() { decode(); return super.getResourceId(); }
+
+        @Override
+        public void setResourceId(String resourceId) { decode(); super.setResourceId(resourceId); }
+    }
+}
@@ -0,0 +1,95 @@
+package com.brightcove.examples.model;
+
+/**
+ * Layout of the binary catalog snapshot, shared by the build time writer and the runtime {@link com.brightcove.examples.model.CatalogSnapshot}.
+ * <p>
+ * The snapshot is a big-endian file made of, in order:
+ * <ul>
+ *     <li>the header, {@link #HEADER_SIZE} bytes: magic, version, checksum, string count, playlist count and video count</li>
+ *     <li>the string table offsets, one int per string plus the end offset, relative to the start of the string data</li>
+ *     <li>the string data, the UTF-8 bytes of every distinct string, padded to a multiple of 4 bytes</li>
+ *     <li>the playlist records, {@link #PLAYLIST_RECORD_SIZE} bytes each, in playlist order</li>
+ *     <li>the video records, {@link #VIDEO_RECORD_SIZE} bytes each, sorted by video identifier</li>
+ * </ul>
+ * Every string field of a record is the int index of the string in the string table, or {@link #NO_STRING} for null.
+ * This class must not depend on any Android class, as the writer is run by the Ant build.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.CatalogSnapshot
+ * @since 1.0
+ */
+final class CatalogSnapshotFormat {
+    // The name of the snapshot file in the application assets. Its extension is one aapt never compresses,
+    // so the asset is stored uncompressed in the APK and memory-mapped directly from it
+    static final String ASSET_NAME = "catalog.snapshot.mp3";
+
+    // The magic number starting every snapshot, "BCVS"
+    static final int MAGIC = 0x42435653;
+    // The snapshot layout version, incremented on any change to the layout
+    static final int VERSION = 1;
+
+    // The header offsets and size
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CHECKSUM_OFFSET = 8;
+    static final int STRING_COUNT_OFFSET = 16;
+    static final int PLAYLIST_COUNT_OFFSET = 20;
+    static final int VIDEO_COUNT_OFFSET = 24;
+    static final int HEADER_SIZE = 28;
+
+    // The string index of a null string
+    static final int NO_STRING = -1;
+
+    // The playlist record field offsets and size
+    static final int PLAYLIST_VIDEO_ID = 0;
+    static final int PLAYLIST_VIDEO = 4;
+    static final int PLAYLIST_THUMBNAIL = 8;
+    static final int PLAYLIST_POSTER = 12;
+    static final int PLAYLIST_TITLE = 16;
+    static final int PLAYLIST_RESOURCE_ID = 20;
+    static final int PLAYLIST_FLAGS = 24;
+    static final int PLAYLIST_RECORD_SIZE = 28;
+
+    // The playlist record flag of a protected video
+    static final int FLAG_PROTECTED = 1;
+
+    // The video record field offsets and size
+    static final int VIDEO_VIDEO_ID = 0;
+    static final int VIDEO_VIDEO = 4;
+    static final int VIDEO_RECORD_SIZE = 8;
+
+    private CatalogSnapshotFormat() {
+    }
+
+    /**
+     * Gets the offset of the string data
+     * @param stringCount the number of strings in the string table
+     * @return the offset of the string data
+     * @since 1.0
+     */
+    static int getStringDataOffset(int stringCount) {
+        return HEADER_SIZE + 4 * (stringCount + 1);
+    }
+
+    /**
+     * Gets the offset of the playlist records
+     * @param stringCount the number of strings in the string table
+     * @param stringDataLength the number of bytes of string data, before padding
+     * @return the offset of the playlist records
+     * @since 1.0
+     */
+    static int getPlaylistOffset(int stringCount, int stringDataLength) {
+        return getStringDataOffset(stringCount) + ((stringDataLength + 3) & ~3);
+    }
+
+    /**
+     * Gets the offset of the video records
+     * @param playlistOffset the offset of the playlist records
+     * @param playlistCount the number of playlist records
+     * @return the offset of the video records
+     * @since 1.0
+     */
+    static int getVideoOffset(int playlistOffset, int playlistCount) {
+        return playlistOffset + playlistCount * PLAYLIST_RECORD_SIZE;
+    }
+}
@@ -0,0 +1,502 @@
+package com.brightcove.examples.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * Synchronizes a persisted local copy of the playlist with a remote catalog feed.
+ * <p>
+ * The feed is requested with a conditional GET, carrying the ETag of the last response as {@code If-None-Match}
+ * and the version of the local catalog as the {@code since} query parameter, so an unchanged catalog is answered
+ * with an empty 304 response, and a changed one with only the changes since that version.
+ * <p>
+ * The feed responds with a Json object holding its {@code version}, and either the full {@code playlist},
+ * or the {@code added} and {@code changed} video items and the {@code removed} video identifiers:
+ * <pre>
+ * { "version": "42", "added": [ {...} ], "changed": [ {...} ], "removed": [ "7A4A90159E09" ] }
+ * </pre>
+ * Changes are applied by streaming the local catalog into a new file, which then atomically replaces it,
+ * so the memory used is independent of the catalog size, and a sync interrupted at any point leaves the
+ * previous catalog in place. Applying the same changes twice has no further effect.
+ * <p>
+ * The local catalog has the same layout as the playlist Json file of the application assets,
+ * and {@link com.brightcove.examples.model.CatalogSync.Changes} describes which playlist positions have changed.
+ * This class does not depend on Android, so it can be run against a local stub HTTP server.
+ * <p>
+ * Example:<br>
+ * {@code CatalogSync.Changes changes = new CatalogSync(feedUrl, directory).sync(); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoPlaylistFactory#syncCatalog(android.content.Context, String)
+ * @since 1.0
+ */
+public class CatalogSync {
+    /**
+     * The name of the local catalog file, in the sync directory
+     * @since 1.0
+     */
+    public static final String CATALOG_FILE = "playlist.json";
+
+    private static final String STATE_FILE = "sync.properties";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String ETAG = "etag";
+    private static final String VERSION = "version";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final URL feedUrl;
+    private final File directory;
+    private final Gson gson;
+    // The type adapter binding each video item, looked up once rather than for every video item
+    private final TypeAdapter<VideoItem> videoItemAdapter;
+
+    /**
+     * Constructs a new CatalogSync
+     * @param feedUrl the url of the remote catalog feed
+     * @param directory the directory of the local catalog
+     * @since 1.0
+     */
+    public CatalogSync(URL feedUrl, File directory) {
+        this(feedUrl, directory, CatalogGson.getInstance());
+    }
+
+    /**
+     * Constructs a new CatalogSync, using the Gson instance to bind the video items
+     * @param feedUrl the url of the remote catalog feed
+     * @param directory the directory of the local catalog
+     * @param gson the Gson instance binding the video items
+     * @since 1.0
+     */
+    public CatalogSync(URL feedUrl, File directory, Gson gson) {
+        this.feedUrl = feedUrl;
+        this.directory = directory;
+        this.gson = gson;
+        this.videoItemAdapter = gson.getAdapter(VideoItem.class);
+    }
+
+    /**
+     * Gets the local catalog file
+     * @return the local catalog file, which only exists once synchronized
+     * @since 1.0
+     */
+    public File getCatalogFile() {
+        return new File(directory, CATALOG_FILE);
+    }
+
+    /**
+     * Synchronizes the local catalog with the remote feed. Must not be called from the main UI thread
+     * @return the changes of the local catalog
+     * @throws IOException if the feed could not be requested, or the changes could not be applied
+     * @since 1.0
+     */
+    public synchronized Changes sync() throws IOException {
+        if( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException("Unable to create the catalog directory " + directory);
+        }
+        File catalogFile = getCatalogFile();
+        Properties state = readState();
+        boolean isIncremental = catalogFile.exists() && state.getProperty(VERSION) != null;
+
+        String url = feedUrl.toString();
+        if( isIncremental ) {
+            url += (url.indexOf('?') < 0 ? "?" : "&") + "since=" + URLEncoder.encode(state.getProperty(VERSION), "UTF-8");
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        if( isIncremental && state.getProperty(ETAG) != null ) {
+            connection.setRequestProperty("If-None-Match", state.getProperty(ETAG));
+        }
+        try {
+            int responseCode = connection.getResponseCode();
+            if( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+                return Changes.NONE;
+            }
+            if( responseCode != HttpURLConnection.HTTP_OK ) {
+                throw new IOException("Unexpected catalog feed response " + responseCode);
+            }
+            Feed feed = readFeed(connection.getInputStream());
+            Changes changes;
+            if( feed.playlistFile != null ) {
+                replace(feed.playlistFile, catalogFile);
+                changes = new Changes(true, feed.playlistCount, 0, new int[0]);
+            }
+            else if( feed.hasDelta() ) {
+                changes = apply(feed, catalogFile);
+            }
+            else {
+                changes = Changes.NONE;
+            }
+
+            if( connection.getHeaderField("ETag") != null ) {
+                state.setProperty(ETAG, connection.getHeaderField("ETag"));
+            }
+            else {
+                state.remove(ETAG);
+            }
+            if( feed.version != null ) {
+                state.setProperty(VERSION, feed.version);
+            }
+            writeState(state);
+            return changes;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the feed response, streaming a full playlist straight to a temporary catalog file
+     * @param inputStream the feed response
+     * @return the feed
+     * @throws IOException if the feed could not be read, or is malformed
+     */
+    private Feed readFeed(InputStream inputStream) throws IOException {
+        Feed feed = new Feed();
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+        try {
+            reader.beginObject();
+            while( reader.hasNext() ) {
+                String name = reader.nextName();
+                if( reader.peek() == JsonToken.NULL ) {
+                    reader.skipValue();
+                }
+                else if( "version".equals(name) ) {
+                    feed.version = reader.nextString();
+                }
+                else if( "playlist".equals(name) ) {
+                    feed.playlistFile = new File(directory, CATALOG_FILE + TMP_SUFFIX);
+                    CatalogWriter writer = new CatalogWriter(feed.playlistFile);
+                    try {
+                        reader.beginArray();
+                        while( reader.hasNext() ) {
+                            writer.write(videoItemAdapter.read(reader));
+                        }
+                        reader.endArray();
+                    }
+                    finally {
+                        feed.playlistCount = writer.close();
+                    }
+                }
+                else if( "added".equals(name) || "changed".equals(name) ) {
+                    // Both upserted by video identifier, in feed order
+                    reader.beginArray();
+                    while( reader.hasNext() ) {
+                        VideoItem videoItem = videoItemAdapter.read(reader);
+                        if( videoItem != null && videoItem.getVideoId() != null ) {
+                            feed.upserts.put(videoItem.getVideoId(), videoItem);
+                        }
+                    }
+                    reader.endArray();
+                }
+                else if( "removed".equals(name) ) {
+                    reader.beginArray();
+                    while( reader.hasNext() ) {
+                        feed.removals.add(reader.nextString());
+                    }
+                    reader.endArray();
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return feed;
+        }
+        catch( RuntimeException re ) {
+            // Gson reports malformed Json as unchecked exceptions
+            throw new IOException("Malformed catalog feed", re);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Applies the changes of the feed to the local catalog, by streaming it into a new catalog file.
+     * Changed and added video items replace the video item with the same video identifier in place,
+     * or else are appended, and the removed video items are dropped. Only the positions whose video item
+     * actually differs are reported as changed
+     * @param feed the feed holding the changes
+     * @param catalogFile the local catalog file
+     * @return the changes of the local catalog
+     * @throws IOException if the changes could not be applied
+     */
+    private Changes apply(final Feed feed, File catalogFile) throws IOException {
+        File tempFile = new File(directory, CATALOG_FILE + TMP_SUFFIX);
+        final CatalogWriter writer = new CatalogWriter(tempFile);
+        final List<Integer> changedPositions = new ArrayList<Integer>();
+        final int[] firstMovedPosition = { -1 };
+        boolean isApplied = false;
+        int count;
+        try {
+            if( catalogFile.exists() ) {
+                new VideoCatalogParser(gson).parse(new FileInputStream(catalogFile), "playlist", new VideoCatalogParser.Callback() {
+                    @Override
+                    public void onVideoItem(VideoItem videoItem) {
+                        if( feed.removals.contains(videoItem.getVideoId()) ) {
+                            if( firstMovedPosition[0] < 0 ) {
+                                firstMovedPosition[0] = writer.getCount();
+                            }
+                            return;
+                        }
+                        VideoItem upsert = feed.upserts.remove(videoItem.getVideoId());
+                        // An upsert identical to the stored video item, e.g. of a delta applied again, changes nothing
+                        if( upsert != null && !isSame(upsert, videoItem) ) {
+                            changedPositions.add(writer.getCount());
+                        }
+                        try {
+                            writer.write(upsert != null ? upsert : videoItem);
+                        }
+                        catch( IOException ioe ) {
+                            // Reported by the parser as an IOException
+                            throw new IllegalStateException(ioe);
+                        }
+                    }
+                });
+            }
+            if( firstMovedPosition[0] < 0 && !feed.upserts.isEmpty() ) {
+                firstMovedPosition[0] = writer.getCount();
+            }
+            for( VideoItem added : feed.upserts.values() ) {
+                if( !feed.removals.contains(added.getVideoId()) ) {
+                    writer.write(added);
+                }
+            }
+            isApplied = true;
+        }
+        finally {
+            count = writer.close();
+            if( !isApplied ) {
+                tempFile.delete();
+            }
+        }
+        replace(tempFile, catalogFile);
+
+        int[] changed = new int[changedPositions.size()];
+        for( int i = 0; i < changed.length; i++ ) {
+            changed[i] = changedPositions.get(i);
+        }
+        return new Changes(false, count, firstMovedPosition[0] < 0 ? count : firstMovedPosition[0], changed);
+    }
+
+    /**
+     * Checks whether two video items hold the same metadata
+     * @param videoItem the video item
+     * @param other the other video item
+     * @return true if every field is equal
+     */
+    private static boolean isSame(VideoItem videoItem, VideoItem other) {
+        return isEqual(videoItem.getVideoId(), other.getVideoId())
+                && isEqual(videoItem.getVideo(), other.getVideo())
+                && isEqual(videoItem.getThumbnail(), other.getThumbnail())
+                && isEqual(videoItem.getPoster(), other.getPoster())
+                && isEqual(videoItem.getTitle(), other.getTitle())
+                && videoItem.getIsProtected() == other.getIsProtected()
+                && isEqual(videoItem.getResourceId(), other.getResourceId());
+    }
+
+    private static boolean isEqual(String value, String other) {
+        return value != null ? value.equals(other) : other == null;
+    }
+
+    /**
+     * Atomically replaces a file
+     * @param source the new file
+     * @param target the file to replace
+     * @throws IOException if the file could not be replaced
+     */
+    private static void replace(File source, File target) throws IOException {
+        if( !source.renameTo(target) ) {
+            throw new IOException("Unable to replace " + target);
+        }
+    }
+
+    /**
+     * Reads the sync state
+     * @return the sync state, empty if never synchronized
+     */
+    private Properties readState() {
+        Properties state = new Properties();
+        File stateFile = new File(directory, STATE_FILE);
+        if( stateFile.exists() ) {
+            try {
+                InputStream in = new FileInputStream(stateFile);
+                try {
+                    state.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch( IOException ioe ) {
+                state.clear();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Writes the sync state, only once the catalog it describes has replaced the local catalog
+     * @param state the sync state
+     * @throws IOException if the sync state could not be written
+     */
+    private void writeState(Properties state) throws IOException {
+        File tempFile = new File(directory, STATE_FILE + TMP_SUFFIX);
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            state.store(out, null);
+        }
+        finally {
+            out.close();
+        }
+        replace(tempFile, new File(directory, STATE_FILE));
+    }
+
+    /**
+     * Describes the changes of the local catalog made by a sync
+     * @since 1.0
+     */
+    public static class Changes {
+        /**
+         * No changes, the local catalog being up to date
+         * @since 1.0
+         */
+        public static final Changes NONE = new Changes(false, -1, -1, new int[0]);
+
+        private final boolean isFull;
+        private final int size;
+        private final int firstMovedPosition;
+        private final int[] changedPositions;
+
+        /**
+         * Constructs new Changes
+         * @param isFull true if the whole catalog was replaced
+         * @param size the new catalog size
+         * @param firstMovedPosition the first position from which the video items may have been removed, added or moved
+         * @param changedPositions the positions of the video items changed in place, before the first moved position
+         * @since 1.0
+         */
+        public Changes(boolean isFull, int size, int firstMovedPosition, int[] changedPositions) {
+            this.isFull = isFull;
+            this.size = size;
+            this.firstMovedPosition = firstMovedPosition;
+            this.changedPositions = changedPositions;
+        }
+
+        /**
+         * Gets whether the local catalog has changed
+         * @return true if changed
+         * @since 1.0
+         */
+        public boolean hasChanges() {
+            return isFull || firstMovedPosition < size || changedPositions.length > 0;
+        }
+
+        /**
+         * Gets whether the whole catalog was replaced, and any position may have changed
+         * @return true if replaced
+         * @since 1.0
+         */
+        public boolean isFull() {
+            return isFull;
+        }
+
+        /**
+         * Gets the new catalog size
+         * @return the catalog size, or -1 if unchanged
+         * @since 1.0
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the first position from which the video items may have been removed, added or moved
+         * @return the first moved position, or the catalog size if no video item was moved
+         * @since 1.0
+         */
+        public int getFirstMovedPosition() {
+            return firstMovedPosition;
+        }
+
+        /**
+         * Gets the positions of the video items changed in place
+         * @return the changed positions, in ascending order
+         * @since 1.0
+         */
+        public int[] getChangedPositions() {
+            return changedPositions;
+        }
+    }
+
+    /**
+     * Internal class for the content of a feed response
+     * @since 1.0
+     */
+    private static class Feed {
+        private String version;
+        // The temporary catalog file of a full playlist, and its size
+        private File playlistFile;
+        private int playlistCount;
+        // The added and changed video items by video identifier, in feed order, and the removed video identifiers
+        private final Map<String, VideoItem> upserts = new LinkedHashMap<String, VideoItem>();
+        private final Set<String> removals = new HashSet<String>();
+
+        public boolean hasDelta() {
+            return !upserts.isEmpty() || !removals.isEmpty();
+        }
+    }
+
+    /**
+     * Internal class streaming video items into a catalog file
+     * @since 1.0
+     */
+    private class CatalogWriter {
+        private final JsonWriter writer;
+        private int count = 0;
+
+        public CatalogWriter(File file) throws IOException {
+            writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+            writer.beginObject();
+            writer.name("playlist");
+            writer.beginArray();
+        }
+
+        public void write(VideoItem videoItem) throws IOException {
+            if( videoItem != null ) {
+                videoItemAdapter.write(writer, videoItem);
+                count++;
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Ends the catalog and closes the file
+         * @return the number of video items written
+         */
+        public int close() throws IOException {
+            try {
+                writer.endArray();
+                writer.endObject();
+            }
+            finally {
+                writer.close();
+            }
+            return count;
+        }
+    }
+}
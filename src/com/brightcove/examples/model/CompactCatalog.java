@@ -0,0 +1,339 @@
+package com.brightcove.examples.model;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable in-memory catalog of video items, stored column by column instead of as one object per video item.
+ * <p>
+ * Every distinct string is stored once, as UTF-8 bytes in a single shared byte array, and referenced by index,
+ * so the values repeated across the catalog, e.g. the resource identifiers, are only stored once.
+ * The urls are split into a shared prefix, e.g. {@code http://www.movie-list.com/img/posters/}, referenced by a 16 bit index,
+ * and the remaining suffix. The protection flags are kept in a bit set.
+ * <p>
+ * The video items are exposed as lightweight read only {@link com.brightcove.examples.model.VideoItem} views,
+ * created on access and decoding their fields from the catalog, so no object is kept per video item.
+ * <p>
+ * Example:<br>
+ * {@code CompactCatalog.Builder builder = new CompactCatalog.Builder(); parser.parse(in, "playlist", builder); CompactCatalog catalog = builder.build(); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoCatalogParser
+ * @since 1.0
+ */
+public class CompactCatalog {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // The string index of a null string
+    private static final int NO_STRING = -1;
+    // The maximum number of distinct url prefixes, as referenced by a char
+    private static final int MAX_PREFIXES = Character.MAX_VALUE + 1;
+
+    private final int size;
+    // The distinct strings, as the UTF-8 bytes of all the strings and the start offset of each string
+    private final byte[] stringData;
+    private final int[] stringOffsets;
+    // The distinct url prefixes, the first one being the empty prefix
+    private final String[] prefixes;
+    // The string indexes of the plain fields, by row
+    private final int[] videoIds;
+    private final int[] titles;
+    private final int[] resourceIds;
+    // The prefix indexes and suffix string indexes of the url fields, by row
+    private final char[] videoPrefixes;
+    private final int[] videoSuffixes;
+    private final char[] thumbnailPrefixes;
+    private final int[] thumbnailSuffixes;
+    private final char[] posterPrefixes;
+    private final int[] posterSuffixes;
+    // The rows of the protected videos
+    private final BitSet protectedRows;
+
+    /**
+     * Private constructor to construct a new CompactCatalog of the built columns
+     * @param builder the builder of the catalog
+     */
+    private CompactCatalog(Builder builder) {
+        size = builder.size;
+        stringData = Arrays.copyOf(builder.stringData, builder.stringDataLength);
+        stringOffsets = Arrays.copyOf(builder.stringOffsets, builder.stringIndexes.size() + 1);
+        prefixes = builder.prefixes.toArray(new String[builder.prefixes.size()]);
+        videoIds = Arrays.copyOf(builder.videoIds, size);
+        titles = Arrays.copyOf(builder.titles, size);
+        resourceIds = Arrays.copyOf(builder.resourceIds, size);
+        videoPrefixes = Arrays.copyOf(builder.videoPrefixes, size);
+        videoSuffixes = Arrays.copyOf(builder.videoSuffixes, size);
+        thumbnailPrefixes = Arrays.copyOf(builder.thumbnailPrefixes, size);
+        thumbnailSuffixes = Arrays.copyOf(builder.thumbnailSuffixes, size);
+        posterPrefixes = Arrays.copyOf(builder.posterPrefixes, size);
+        posterSuffixes = Arrays.copyOf(builder.posterSuffixes, size);
+        protectedRows = (BitSet) builder.protectedRows.clone();
+    }
+
+    /**
+     * Gets the number of video items of the catalog
+     * @return the catalog size
+     * @since 1.0
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a read only view of the video item at the row, decoding its fields from the catalog on access
+     * @param row the row of the video item
+     * @return the video item view
+     * @since 1.0
+     */
+    public VideoItem getItem(int row) {
+        if( row < 0 || row >= size ) {
+            throw new IndexOutOfBoundsException("Catalog row " + row + " of " + size);
+        }
+        return new Row(row);
+    }
+
+    /**
+     * Gets the video identifier at the row, without creating a video item view
+     * @param row the row of the video item
+     * @return the video identifier
+     * @since 1.0
+     */
+    public String getVideoId(int row) {
+        return getString(videoIds[row]);
+    }
+
+    /**
+     * Gets the video resourceId at the row, without creating a video item view
+     * @param row the row of the video item
+     * @return the video resourceId
+     * @since 1.0
+     */
+    public String getResourceId(int row) {
+        return getString(resourceIds[row]);
+    }
+
+    /**
+     * Decodes a string of the string pool
+     * @param index the string index
+     * @return the string, or null for NO_STRING
+     */
+    private String getString(int index) {
+        if( index == NO_STRING ) {
+            return null;
+        }
+        return new String(stringData, stringOffsets[index], stringOffsets[index + 1] - stringOffsets[index], UTF_8);
+    }
+
+    /**
+     * Decodes a url of the prefix and suffix
+     * @param prefix the prefix index
+     * @param suffix the suffix string index
+     * @return the url, or null if the suffix is NO_STRING
+     */
+    private String getUrl(char prefix, int suffix) {
+        String suffixString = getString(suffix);
+        return suffixString != null ? prefixes[prefix].concat(suffixString) : null;
+    }
+
+    /**
+     * Builder collecting the video items into a CompactCatalog as they are parsed, without holding on to the video items
+     * @see com.brightcove.examples.model.VideoCatalogParser
+     * @since 1.0
+     */
+    public static class Builder implements VideoCatalogParser.Callback {
+        private int size = 0;
+        private byte[] stringData = new byte[4096];
+        private int stringDataLength = 0;
+        private int[] stringOffsets = new int[256];
+        // The index of every distinct string, only kept while building
+        private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        private final List<String> prefixes = new ArrayList<String>();
+        private final Map<String, Integer> prefixIndexes = new HashMap<String, Integer>();
+        private int[] videoIds = new int[64];
+        private int[] titles = new int[64];
+        private int[] resourceIds = new int[64];
+        private char[] videoPrefixes = new char[64];
+        private int[] videoSuffixes = new int[64];
+        private char[] thumbnailPrefixes = new char[64];
+        private int[] thumbnailSuffixes = new int[64];
+        private char[] posterPrefixes = new char[64];
+        private int[] posterSuffixes = new int[64];
+        private final BitSet protectedRows = new BitSet();
+        // The prefix index of the url last added, returned along with its suffix string index
+        private char urlPrefix;
+
+        /**
+         * Constructs a new Builder of an empty catalog
+         * @since 1.0
+         */
+        public Builder() {
+            prefixes.add("");
+            prefixIndexes.put("", 0);
+        }
+
+        /**
+         * Adds the video item as the next row of the catalog
+         * @param videoItem the video item
+         * @since 1.0
+         */
+        @Override
+        public void onVideoItem(VideoItem videoItem) {
+            if( size == videoIds.length ) {
+                grow(size * 2);
+            }
+            videoIds[size] = intern(videoItem.getVideoId());
+            titles[size] = intern(videoItem.getTitle());
+            resourceIds[size] = intern(videoItem.getResourceId());
+            videoSuffixes[size] = internUrl(videoItem.getVideo());
+            videoPrefixes[size] = urlPrefix;
+            thumbnailSuffixes[size] = internUrl(videoItem.getThumbnail());
+            thumbnailPrefixes[size] = urlPrefix;
+            posterSuffixes[size] = internUrl(videoItem.getPoster());
+            posterPrefixes[size] = urlPrefix;
+            if( videoItem.getIsProtected() ) {
+                protectedRows.set(size);
+            }
+            size++;
+        }
+
+        /**
+         * Builds the CompactCatalog of the added video items
+         * @return the catalog
+         * @since 1.0
+         */
+        public CompactCatalog build() {
+            return new CompactCatalog(this);
+        }
+
+        /**
+         * Grows the row columns
+         * @param capacity the new row capacity
+         */
+        private void grow(int capacity) {
+            videoIds = Arrays.copyOf(videoIds, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            resourceIds = Arrays.copyOf(resourceIds, capacity);
+            videoPrefixes = Arrays.copyOf(videoPrefixes, capacity);
+            videoSuffixes = Arrays.copyOf(videoSuffixes, capacity);
+            thumbnailPrefixes = Arrays.copyOf(thumbnailPrefixes, capacity);
+            thumbnailSuffixes = Arrays.copyOf(thumbnailSuffixes, capacity);
+            posterPrefixes = Arrays.copyOf(posterPrefixes, capacity);
+            posterSuffixes = Arrays.copyOf(posterSuffixes, capacity);
+        }
+
+        /**
+         * Splits a url into its prefix, up to and including the last '/', and its suffix.
+         * Sets the prefix index as the urlPrefix, and returns the suffix string index
+         * @param url the url, or null
+         * @return the suffix string index, or NO_STRING for null
+         */
+        private int internUrl(String url) {
+            urlPrefix = 0;
+            if( url == null ) {
+                return NO_STRING;
+            }
+            int split = url.lastIndexOf('/') + 1;
+            if( split > 0 ) {
+                String prefix = url.substring(0, split);
+                Integer prefixIndex = prefixIndexes.get(prefix);
+                if( prefixIndex == null && prefixes.size() < MAX_PREFIXES ) {
+                    prefixIndex = prefixes.size();
+                    prefixes.add(prefix);
+                    prefixIndexes.put(prefix, prefixIndex);
+                }
+                if( prefixIndex != null ) {
+                    urlPrefix = (char) prefixIndex.intValue();
+                    return intern(url.substring(split));
+                }
+            }
+            // Without a prefix, or once out of prefixes, the whole url is the suffix
+            return intern(url);
+        }
+
+        /**
+         * Gets the string index of the string, adding it to the string pool if not already added
+         * @param string the string, or null
+         * @return the string index, or NO_STRING for null
+         */
+        private int intern(String string) {
+            if( string == null ) {
+                return NO_STRING;
+            }
+            Integer index = stringIndexes.get(string);
+            if( index == null ) {
+                byte[] bytes = string.getBytes(UTF_8);
+                index = stringIndexes.size();
+                if( stringDataLength + bytes.length > stringData.length ) {
+                    stringData = Arrays.copyOf(stringData, Math.max(stringData.length * 2, stringDataLength + bytes.length));
+                }
+                System.arraycopy(bytes, 0, stringData, stringDataLength, bytes.length);
+                if( index + 2 > stringOffsets.length ) {
+                    stringOffsets = Arrays.copyOf(stringOffsets, stringOffsets.length * 2);
+                }
+                stringOffsets[index] = stringDataLength;
+                stringDataLength += bytes.length;
+                stringOffsets[index + 1] = stringDataLength;
+                stringIndexes.put(string, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Internal read only VideoItem view of a catalog row, decoding its fields from the catalog on every access
+     * @since 1.0
+     */
+    private class Row extends VideoItem {
+        private final int row;
+
+        public Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String getVideoId() { return getString(videoIds[row]); }
+
+        @Override
+        public String getVideo() { return getUrl(videoPrefixes[row], videoSuffixes[row]); }
+
+        @Override
+        public String getThumbnail() { return getUrl(thumbnailPrefixes[row], thumbnailSuffixes[row]); }
+
+        @Override
+        public String getPoster() { return getUrl(posterPrefixes[row], posterSuffixes[row]); }
+
+        @Override
+        public String getTitle() { return getString(titles[row]); }
+
+        @Override
+        public boolean getIsProtected() { return protectedRows.get(row); }
+
+        @Override
+        public String getResourceId() { return getString(resourceIds[row]); }
+
+        @Override
+        public void setVideoId(String videoId) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setVideo(String videoUrl) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setThumbnail(String thumbnailUrl) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setPoster(String posterUrl) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setTitle(String title) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setIsProtected(boolean isProtected) { throw new UnsupportedOperationException("Read only catalog item"); }
+
+        @Override
+        public void setResourceId(String resourceId) { throw new UnsupportedOperationException("Read only catalog item"); }
+    }
+}
@@ -0,0 +1,339 @@
+package com.brightcove.examples.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Read only playlist which reports the full playlist size, but only keeps a window of pages of video items in memory.
+ * <p>
+ * The pages are loaded on demand from a {@link com.brightcove.examples.model.PagedPlaylist.PageSource}, e.g. the catalog
+ * snapshot, the Json catalog or a remote feed, on a background thread. Accessing an item of a page which is not loaded
+ * returns null and starts loading the page, along with the neighbouring page when nearing its edge, and the
+ * {@link com.brightcove.examples.model.PagedPlaylist.Listener} is notified once it is loaded.
+ * The least recently accessed pages are evicted once more than the maximum number of pages are loaded,
+ * so the memory used is independent of the playlist size.
+ * <p>
+ * The playlist must only be accessed from the main UI thread, e.g. as the list of an {@link android.widget.ArrayAdapter},
+ * which then has to render the null items of the pages still loading.
+ * <p>
+ * Example:<br>
+ * {@code PagedPlaylist playlist = VideoPlaylistFactory.getPagedPlaylist(context); playlist.setListener(listener); playlist.open(); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoPlaylistFactory#getPagedPlaylist(android.content.Context)
+ * @since 1.0
+ */
+public class PagedPlaylist extends AbstractList<VideoItem> {
+    private static final String LOG_TAG = "[PagedPlaylist]";
+
+    /**
+     * The number of video items per page when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    /**
+     * The maximum number of loaded pages when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    /**
+     * Interface for the source of the playlist pages. Only ever called from a background thread
+     * @since 1.0
+     */
+    public interface PageSource {
+        /**
+         * Gets the number of video items of the playlist
+         * @return the playlist size
+         * @throws IOException if the playlist could not be read
+         * @since 1.0
+         */
+        int getCount() throws IOException;
+
+        /**
+         * Gets a page of video items of the playlist
+         * @param offset the position of the first video item of the page
+         * @param count the number of video items of the page
+         * @return the video items of the page, fewer than count at the end of the playlist
+         * @throws IOException if the playlist could not be read
+         * @since 1.0
+         */
+        List<VideoItem> getPage(int offset, int count) throws IOException;
+    }
+
+    /**
+     * Interface for listening to the changes of the playlist, on the main UI thread
+     * @since 1.0
+     */
+    public interface Listener {
+        /**
+         * Called when the playlist size has changed, or a page has been loaded
+         * @since 1.0
+         */
+        void onPlaylistChanged();
+    }
+
+    private final PageSource source;
+    private final int pageSize;
+    private final Executor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // The loaded pages by page index, in access order
+    private final LinkedHashMap<Integer, List<VideoItem>> pages;
+    // The page indexes currently being loaded
+    private final Set<Integer> loadingPages = new HashSet<Integer>();
+    private int size = 0;
+    // Incremented whenever the source changes, so the pages loaded from the previous source are dropped
+    private int generation = 0;
+    private boolean isClosed = false;
+    private Listener listener;
+
+    /**
+     * Constructs a new PagedPlaylist with the default page configuration
+     * @param source the source of the playlist pages
+     * @param executor the executor to load the pages on
+     * @since 1.0
+     */
+    public PagedPlaylist(PageSource source, Executor executor) {
+        this(source, executor, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * Constructs a new PagedPlaylist with an explicit page configuration
+     * @param source the source of the playlist pages
+     * @param executor the executor to load the pages on
+     * @param pageSize the number of video items per page
+     * @param maxPages the maximum number of loaded pages, which must hold more than the visible items
+     * @since 1.0
+     */
+    public PagedPlaylist(PageSource source, Executor executor, int pageSize, final int maxPages) {
+        this.source = source;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<Integer, List<VideoItem>>(maxPages + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<VideoItem>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Sets the listener notified of the playlist changes
+     * @param listener the listener, or null
+     * @since 1.0
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts loading the playlist. The first page is published as soon as it is loaded, and only then is the full size
+     * of the playlist counted, so the first video items are displayed independently of the playlist size
+     * @since 1.0
+     */
+    public void open() {
+        final int openGeneration = generation;
+        loadingPages.add(0);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<VideoItem> firstPage = source.getPage(0, pageSize);
+                    publish(new Runnable() {
+                        @Override
+                        public void run() {
+                            if( openGeneration == generation ) {
+                                putPage(0, firstPage);
+                                size = Math.max(size, firstPage.size());
+                            }
+                        }
+                    });
+                    if( firstPage.size() < pageSize ) {
+                        return;
+                    }
+                    final int count = source.getCount();
+                    publish(new Runnable() {
+                        @Override
+                        public void run() {
+                            if( openGeneration == generation ) {
+                                size = count;
+                            }
+                        }
+                    });
+                }
+                catch( IOException ioe ) {
+                    Log.e(LOG_TAG, "Unable to open the playlist: " + ioe.getMessage());
+                    publish(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadingPages.remove(0);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the changes of the source, e.g. a synchronized catalog, only dropping the loaded pages which have changed.
+     * The pages being loaded are loaded again, in case they were loaded before the changes
+     * @param changes the changes of the source
+     * @see com.brightcove.examples.model.CatalogSync#sync()
+     * @since 1.0
+     */
+    public void applyChanges(CatalogSync.Changes changes) {
+        if( isClosed || !changes.hasChanges() ) {
+            return;
+        }
+        generation++;
+        loadingPages.clear();
+        if( changes.isFull() ) {
+            pages.clear();
+        }
+        else {
+            int firstMovedPage = changes.getFirstMovedPosition() / pageSize;
+            Iterator<Integer> iterator = pages.keySet().iterator();
+            while( iterator.hasNext() ) {
+                if( iterator.next() >= firstMovedPage ) {
+                    iterator.remove();
+                }
+            }
+            for( int position : changes.getChangedPositions() ) {
+                pages.remove(position / pageSize);
+            }
+        }
+        size = changes.getSize();
+        if( listener != null ) {
+            listener.onPlaylistChanged();
+        }
+    }
+
+    /**
+     * Stops publishing any further changes, and releases the loaded pages
+     * @since 1.0
+     */
+    public void close() {
+        isClosed = true;
+        pages.clear();
+    }
+
+    /**
+     * Gets the full size of the playlist, including the video items of the pages not loaded
+     * @return the playlist size
+     * @since 1.0
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the video item at the position, if its page is loaded.
+     * Otherwise starts loading its page, and returns null until the page is loaded
+     * @param position the playlist position
+     * @return the video item, or null if its page is not loaded
+     * @since 1.0
+     */
+    @Override
+    public VideoItem get(int position) {
+        if( position < 0 || position >= size ) {
+            throw new IndexOutOfBoundsException("Playlist position " + position + " of " + size);
+        }
+        int pageIndex = position / pageSize;
+        int pageOffset = position % pageSize;
+        List<VideoItem> page = pages.get(pageIndex);
+        if( page == null ) {
+            requestPage(pageIndex);
+        }
+        // Loads the neighbouring page ahead of being needed
+        if( pageOffset >= pageSize * 3 / 4 ) {
+            requestPage(pageIndex + 1);
+        }
+        else if( pageOffset < pageSize / 4 ) {
+            requestPage(pageIndex - 1);
+        }
+        return page != null && pageOffset < page.size() ? page.get(pageOffset) : null;
+    }
+
+    /**
+     * Starts loading a page, unless already loaded or loading
+     * @param pageIndex the page index
+     */
+    private void requestPage(final int pageIndex) {
+        final int pageGeneration = generation;
+        if( isClosed || pageIndex < 0 || pageIndex * pageSize >= size
+                || pages.containsKey(pageIndex) || !loadingPages.add(pageIndex) ) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<VideoItem> loaded = null;
+                try {
+                    loaded = source.getPage(pageIndex * pageSize, pageSize);
+                }
+                catch( IOException ioe ) {
+                    Log.e(LOG_TAG, "Unable to load playlist page " + pageIndex + ": " + ioe.getMessage());
+                }
+                final List<VideoItem> page = loaded;
+                publish(new Runnable() {
+                    @Override
+                    public void run() {
+                        if( pageGeneration != generation ) {
+                            // Loaded before the source changed, and requested again since if still needed
+                            return;
+                        }
+                        if( page != null ) {
+                            putPage(pageIndex, page);
+                        }
+                        else {
+                            // Lets the next access retry loading the page
+                            loadingPages.remove(pageIndex);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds a loaded page, evicting the least recently accessed page if more than the maximum number of pages are loaded
+     * @param pageIndex the page index
+     * @param page the video items of the page
+     */
+    private void putPage(int pageIndex, List<VideoItem> page) {
+        loadingPages.remove(pageIndex);
+        pages.put(pageIndex, page);
+    }
+
+    /**
+     * Runs a change on the main UI thread, and then notifies the listener, unless the playlist has been closed
+     * @param change the change to run
+     */
+    private void publish(final Runnable change) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if( isClosed ) {
+                    return;
+                }
+                change.run();
+                if( listener != null ) {
+                    listener.onPlaylistChanged();
+                }
+            }
+        });
+    }
+}
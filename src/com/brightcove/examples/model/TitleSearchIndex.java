@@ -0,0 +1,299 @@
+package com.brightcove.examples.model;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory type-ahead search index of the video titles of the playlist.
+ * <p>
+ * Every title is split into lower case tokens, and each token maps to the sorted postings of the playlist positions
+ * whose title contains it. Each query token matches every indexed token it is a prefix of, found by a range of the sorted
+ * tokens, so a query only ever reads the postings of the matching tokens and never scans the titles.
+ * <p>
+ * The titles are added as the playlist loads, in playlist order, and the index can be searched at any time,
+ * matching the titles added so far. The {@link com.brightcove.examples.model.TitleSearchIndex.Listener} is notified
+ * once all the titles are added, so a search can be run again over the whole playlist.
+ * <p>
+ * Matches are ranked by the best matching title first: a query token equal to a title token scores higher than
+ * a prefix of one, and a match of the first title token scores higher than a match of a later one.
+ * Equally ranked matches keep their playlist order.
+ * <p>
+ * Example:<br>
+ * {@code int[] positions = index.search("plan ap", 100); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.adapters.VideoListAdapter#setFilter(int[])
+ * @since 1.0
+ */
+public class TitleSearchIndex implements VideoCatalogParser.Callback {
+    // The highest token ordinal kept in a posting, later tokens ranking the same
+    private static final int MAX_ORDINAL = 0xFF;
+    // The score of a token prefix match, of an exact token match, and the bonus of a first title token match
+    private static final int PREFIX_SCORE = 4;
+    private static final int EXACT_SCORE = 8;
+    private static final int FIRST_TOKEN_SCORE = 2;
+
+    /**
+     * Interface for listening to the completion of the index, on the main UI thread
+     * @since 1.0
+     */
+    public interface Listener {
+        /**
+         * Called once all the titles of the playlist have been added
+         * @since 1.0
+         */
+        void onIndexComplete();
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean isComplete = false;
+    private Listener listener;
+    // The postings of each token, ordered by token
+    private final TreeMap<String, Postings> tokens = new TreeMap<String, Postings>();
+    // The number of titles added, i.e. the next playlist position
+    private int size = 0;
+    // Scratch arrays of the last search, reused across searches: the score by position, the score of the current round
+    // by position, and the positions matched by a round
+    private int[] scores = new int[0];
+    private byte[] roundScores = new byte[0];
+    private int[] matched = new int[0];
+
+    /**
+     * Adds the title of the video item, at the next playlist position
+     * @param videoItem the video item
+     * @since 1.0
+     */
+    @Override
+    public void onVideoItem(VideoItem videoItem) {
+        add(videoItem.getTitle());
+    }
+
+    /**
+     * Adds a title, at the next playlist position
+     * @param title the title, or null
+     * @since 1.0
+     */
+    public synchronized void add(String title) {
+        int position = size++;
+        if( title == null ) {
+            return;
+        }
+        String[] titleTokens = tokenize(title);
+        for( int ordinal = 0; ordinal < titleTokens.length; ordinal++ ) {
+            Postings postings = tokens.get(titleTokens[ordinal]);
+            if( postings == null ) {
+                postings = new Postings();
+                tokens.put(titleTokens[ordinal], postings);
+            }
+            postings.add(position, Math.min(ordinal, MAX_ORDINAL));
+        }
+    }
+
+    /**
+     * Sets the listener notified once the index is complete
+     * @param listener the listener, or null
+     * @since 1.0
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Checks whether all the titles of the playlist have been added
+     * @return true if the index is complete
+     * @since 1.0
+     */
+    public synchronized boolean isComplete() {
+        return isComplete;
+    }
+
+    /**
+     * Marks the index as complete, once all the titles of the playlist have been added, and notifies the listener
+     * on the main UI thread
+     * @since 1.0
+     */
+    public void complete() {
+        synchronized(this) {
+            isComplete = true;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener;
+                synchronized(TitleSearchIndex.this) {
+                    listener = TitleSearchIndex.this.listener;
+                }
+                if( listener != null ) {
+                    listener.onIndexComplete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the number of titles added
+     * @return the number of indexed playlist positions
+     * @since 1.0
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Searches the titles matching every token of the query, each query token matching as a prefix of a title token
+     * @param query the search query
+     * @param maxResults the maximum number of matches
+     * @return the playlist positions of the matches, best match first, or null for an empty query
+     * @since 1.0
+     */
+    public synchronized int[] search(String query, int maxResults) {
+        String[] queryTokens = tokenize(query);
+        if( queryTokens.length == 0 ) {
+            return null;
+        }
+        if( scores.length < size ) {
+            scores = new int[size];
+            roundScores = new byte[size];
+            matched = new int[size];
+        }
+        else {
+            Arrays.fill(scores, 0, size, 0);
+        }
+
+        // A position only scores in a query token round if it has scored in all the previous rounds,
+        // so the positions matching all query tokens are the ones matched by the last round
+        int matchCount = 0;
+        for( int round = 0; round < queryTokens.length; round++ ) {
+            matchCount = score(queryTokens[round], round);
+            if( matchCount == 0 ) {
+                return new int[0];
+            }
+        }
+
+        return rank(matched, matchCount, queryTokens.length, maxResults);
+    }
+
+    /**
+     * Orders the best matches by descending score, then by playlist position, without sorting all the matches.
+     * The scores are small, so the score of the last match returned is found from a histogram of the scores,
+     * and only the matches scoring above it are sorted, the ones scoring the same being taken in playlist order
+     * @param matches the matching positions
+     * @param matchCount the number of matching positions
+     * @param rounds the number of query tokens
+     * @param maxResults the maximum number of matches
+     * @return the best matching positions
+     */
+    private int[] rank(int[] matches, int matchCount, int rounds, int maxResults) {
+        int[] histogram = new int[rounds * (EXACT_SCORE + FIRST_TOKEN_SCORE) + 1];
+        for( int i = 0; i < matchCount; i++ ) {
+            histogram[scores[matches[i]] & 0xFFFFFF]++;
+        }
+        int threshold = histogram.length - 1;
+        int above = 0;
+        while( threshold > 0 && above + histogram[threshold] < maxResults ) {
+            above += histogram[threshold--];
+        }
+
+        int[] positions = new int[Math.min(matchCount, maxResults)];
+        long[] ranked = new long[above];
+        int count = 0;
+        for( int i = 0; i < matchCount && count < above; i++ ) {
+            int score = scores[matches[i]] & 0xFFFFFF;
+            if( score > threshold ) {
+                ranked[count++] = ((long) (0xFFFFFF - score) << 32) | matches[i];
+            }
+        }
+        Arrays.sort(ranked);
+        for( int i = 0; i < above; i++ ) {
+            positions[i] = (int) ranked[i];
+        }
+        // The matches scoring the threshold, in playlist order
+        int matchedScore = (rounds << 24) | threshold;
+        for( int position = 0; position < size && count < positions.length; position++ ) {
+            if( scores[position] == matchedScore ) {
+                positions[count++] = position;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Scores the positions matching a query token, which have matched all the previous query tokens.
+     * A score holds the number of matched rounds in its top byte, and the accumulated rank in the rest
+     * @param queryToken the query token
+     * @param round the index of the query token
+     * @return the number of matching positions, which are stored in the matched array
+     */
+    private int score(String queryToken, int round) {
+        int matchCount = 0;
+        SortedMap<String, Postings> matches = tokens.subMap(queryToken, queryToken + Character.MAX_VALUE);
+        for( Map.Entry<String, Postings> match : matches.entrySet() ) {
+            int tokenScore = match.getKey().length() == queryToken.length() ? EXACT_SCORE : PREFIX_SCORE;
+            Postings postings = match.getValue();
+            for( int i = 0; i < postings.count; i++ ) {
+                int position = postings.positions[i];
+                int score = scores[position];
+                int rank = tokenScore + (postings.ordinals[i] == 0 ? FIRST_TOKEN_SCORE : 0);
+                if( score >>> 24 == round ) {
+                    // First match of the round, for a position of all the previous rounds
+                    scores[position] = ((round + 1) << 24) | ((score & 0xFFFFFF) + rank);
+                    roundScores[position] = (byte) rank;
+                    matched[matchCount++] = position;
+                }
+                else if( score >>> 24 == round + 1 && rank > roundScores[position] ) {
+                    // Only the best matching title token of the round counts
+                    scores[position] = score + rank - roundScores[position];
+                    roundScores[position] = (byte) rank;
+                }
+            }
+        }
+        return matchCount;
+    }
+
+    /**
+     * Splits a text into lower case tokens of letters and digits
+     * @param text the text
+     * @return the tokens
+     */
+    private static String[] tokenize(String text) {
+        String lowerCase = text.toLowerCase(Locale.US);
+        String[] parts = lowerCase.split("[^\\p{L}\\p{N}]+");
+        int count = 0;
+        for( String part : parts ) {
+            if( part.length() > 0 ) {
+                parts[count++] = part;
+            }
+        }
+        return Arrays.copyOf(parts, count);
+    }
+
+    /**
+     * Internal class for the growable postings of a token, in ascending playlist position
+     * @since 1.0
+     */
+    private static class Postings {
+        private int[] positions = new int[2];
+        private byte[] ordinals = new byte[2];
+        private int count = 0;
+
+        public void add(int position, int ordinal) {
+            // A title repeating a token is only posted once, for its first occurrence
+            if( count > 0 && positions[count - 1] == position ) {
+                return;
+            }
+            if( count == positions.length ) {
+                positions = Arrays.copyOf(positions, count * 2);
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+            }
+            positions[count] = position;
+            ordinals[count] = (byte) ordinal;
+            count++;
+        }
+    }
+}
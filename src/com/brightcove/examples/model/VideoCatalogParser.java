@@ -0,0 +1,152 @@
+package com.brightcove.examples.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming parser for the Json video catalogs, e.g. the playlist and the video lookup map.
+ * <p>
+ * The catalog is read with a {@link com.google.gson.stream.JsonReader} straight from the input stream,
+ * and each video item is handed to the {@link com.brightcove.examples.model.VideoCatalogParser.Callback}
+ * as soon as it is parsed. Only a single video item is held at a time, so the memory used while parsing
+ * is independent of the catalog size, and the first items can be displayed before the rest are parsed.
+ * <p>
+ * Example:<br>
+ * {@code new VideoCatalogParser().parse(inputStream, "playlist", callback); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoPlaylistFactory
+ * @since 1.0
+ */
+public class VideoCatalogParser {
+
+    /**
+     * Interface for receiving the video items as they are parsed
+     * @since 1.0
+     */
+    public interface Callback {
+        /**
+         * Called on the parsing thread for each parsed video item, in catalog order
+         * @param videoItem the parsed video item
+         * @since 1.0
+         */
+        void onVideoItem(VideoItem videoItem);
+    }
+
+    // The type adapter binding each video item, looked up once rather than for every video item
+    private final TypeAdapter<VideoItem> videoItemAdapter;
+
+    /**
+     * Constructs a new VideoCatalogParser, using the shared catalog Gson instance
+     * @see com.brightcove.examples.model.CatalogGson
+     * @since 1.0
+     */
+    public VideoCatalogParser() {
+        this(CatalogGson.getInstance());
+    }
+
+    /**
+     * Constructs a new VideoCatalogParser, using the Gson instance to bind each video item
+     * @param gson the Gson instance binding the video items
+     * @since 1.0
+     */
+    public VideoCatalogParser(Gson gson) {
+        this.videoItemAdapter = gson.getAdapter(VideoItem.class);
+    }
+
+    /**
+     * Parses the video items of the named array in the top level Json object of the catalog,
+     * skipping any other member without binding it. Closes the input stream when done.
+     * @param inputStream the UTF-8 encoded Json catalog
+     * @param arrayName the name of the video item array, e.g. "playlist" or "videos"
+     * @param callback the callback receiving each parsed video item
+     * @return the number of parsed video items
+     * @throws IOException if the catalog could not be read, or is malformed
+     * @since 1.0
+     */
+    public int parse(InputStream inputStream, String arrayName, Callback callback) throws IOException {
+        return parse(inputStream, arrayName, 0, Integer.MAX_VALUE, callback);
+    }
+
+    /**
+     * Parses a range of the video items of the named array in the top level Json object of the catalog.
+     * The video items before the range are skipped without being bound, and the parsing stops as soon as
+     * the range is parsed, so reading a page of the catalog never binds more than the page.
+     * Closes the input stream when done.
+     * @param inputStream the UTF-8 encoded Json catalog
+     * @param arrayName the name of the video item array, e.g. "playlist" or "videos"
+     * @param offset the index of the first video item to parse
+     * @param limit the maximum number of video items to parse
+     * @param callback the callback receiving each parsed video item
+     * @return the number of parsed video items
+     * @throws IOException if the catalog could not be read, or is malformed
+     * @since 1.0
+     */
+    public int parse(InputStream inputStream, String arrayName, int offset, int limit, Callback callback) throws IOException {
+        return read(inputStream, arrayName, offset, limit, callback);
+    }
+
+    /**
+     * Counts the video items of the named array in the top level Json object of the catalog, without binding any of them.
+     * Closes the input stream when done.
+     * @param inputStream the UTF-8 encoded Json catalog
+     * @param arrayName the name of the video item array, e.g. "playlist" or "videos"
+     * @return the number of video items
+     * @throws IOException if the catalog could not be read, or is malformed
+     * @since 1.0
+     */
+    public int count(InputStream inputStream, String arrayName) throws IOException {
+        return read(inputStream, arrayName, 0, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Reads a range of the video items of the named array, binding them for the callback, or only counting them without callback
+     */
+    private int read(InputStream inputStream, String arrayName, int offset, int limit, Callback callback) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+        try {
+            int count = 0;
+            reader.beginObject();
+            while( reader.hasNext() ) {
+                if( !arrayName.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY ) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                for( int index = 0; reader.hasNext(); index++ ) {
+                    if( index < offset || callback == null ) {
+                        reader.skipValue();
+                        count += callback == null ? 1 : 0;
+                        continue;
+                    }
+                    if( count >= limit ) {
+                        // The rest of the catalog is never read
+                        return count;
+                    }
+                    VideoItem videoItem = videoItemAdapter.read(reader);
+                    if( videoItem != null ) {
+                        callback.onVideoItem(videoItem);
+                        count++;
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return count;
+        }
+        catch( RuntimeException re ) {
+            // Gson reports malformed Json as unchecked exceptions
+            throw new IOException("Malformed video catalog", re);
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.brightcove.examples.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable lookup index of the video urls by video identifier.
+ * <p>
+ * The index is held as two sorted parallel arrays and searched with a binary search,
+ * so it only takes two references per video instead of a HashMap entry per video.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.VideoPlaylistFactory#getVideoUrl(String)
+ * @since 1.0
+ */
+public class VideoIndex {
+    // The video identifiers, sorted
+    private final String[] videoIds;
+    // The video urls, in the order of the video identifiers
+    private final String[] videoUrls;
+
+    /**
+     * Constructs a new VideoIndex of the video items.
+     * If several video items share the same video identifier, the last one is indexed
+     * @param videoItems the video items to index
+     * @since 1.0
+     */
+    public VideoIndex(List<VideoItem> videoItems) {
+        this(sort(videoItems));
+    }
+
+    /**
+     * Constructs a new VideoIndex of the sorted video urls
+     * @param sorted the video urls by video identifier
+     */
+    private VideoIndex(TreeMap<String,String> sorted) {
+        videoIds = new String[sorted.size()];
+        videoUrls = new String[sorted.size()];
+        int i = 0;
+        for( Map.Entry<String,String> entry : sorted.entrySet() ) {
+            videoIds[i] = entry.getKey();
+            videoUrls[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Sorts the video urls of the video items by video identifier
+     * @param videoItems the video items
+     * @return the sorted video urls
+     */
+    private static TreeMap<String,String> sort(List<VideoItem> videoItems) {
+        Builder builder = new Builder();
+        for( VideoItem videoItem : videoItems ) {
+            builder.onVideoItem(videoItem);
+        }
+        return builder.sorted;
+    }
+
+    /**
+     * Gets the video url of the video identifier
+     * @param videoId the video identifier
+     * @return the video url, or null if not indexed
+     * @since 1.0
+     */
+    public String get(String videoId) {
+        if( videoId == null ) {
+            return null;
+        }
+        int index = Arrays.binarySearch(videoIds, videoId);
+        return index >= 0 ? videoUrls[index] : null;
+    }
+
+    /**
+     * Gets the number of indexed videos
+     * @return the index size
+     * @since 1.0
+     */
+    public int size() {
+        return videoIds.length;
+    }
+
+    /**
+     * Builder collecting the video urls as the video items are parsed, without holding on to the video items.
+     * If several video items share the same video identifier, the last one is indexed
+     * @see com.brightcove.examples.model.VideoCatalogParser
+     * @since 1.0
+     */
+    public static class Builder implements VideoCatalogParser.Callback {
+        private final TreeMap<String,String> sorted = new TreeMap<String,String>();
+
+        /**
+         * Adds the video url of the video item to the index
+         * @param videoItem the video item
+         * @since 1.0
+         */
+        @Override
+        public void onVideoItem(VideoItem videoItem) {
+            if( videoItem.getVideoId() != null ) {
+                sorted.put(videoItem.getVideoId(), videoItem.getVideo());
+            }
+        }
+
+        /**
+         * Builds the VideoIndex of the added video items
+         * @return the video index
+         * @since 1.0
+         */
+        public VideoIndex build() {
+            return new VideoIndex(sorted);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.brightcove.examples.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Hand written Gson TypeAdapter binding a {@link com.brightcove.examples.model.VideoItem} to and from its Json object,
+ * without reflection.
+ * <p>
+ * The Json members are matched by name straight off the {@link com.google.gson.stream.JsonReader}, so binding a video item
+ * only allocates the video item and its strings. The Json layout is the same as the one of the reflective Gson binding:
+ * the members are named after the VideoItem fields, null members are left out, and unknown members are skipped.
+ * The fields are written through the getters, so the read only video item views of the catalogs are written as well.
+ * <p>
+ * Example:<br>
+ * {@code VideoItem videoItem = CatalogGson.getInstance().getAdapter(VideoItem.class).read(reader); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.examples.model.CatalogGson
+ * @since 1.0
+ */
+public class VideoItemTypeAdapter extends TypeAdapter<VideoItem> {
+
+    /**
+     * Reads a video item from its Json object
+     * @param reader the Json reader, positioned at the video item
+     * @return the video item, or null for a Json null
+     * @throws IOException if the video item could not be read
+     * @since 1.0
+     */
+    @Override
+    public VideoItem read(JsonReader reader) throws IOException {
+        if( reader.peek() == JsonToken.NULL ) {
+            reader.nextNull();
+            return null;
+        }
+        VideoItem videoItem = new VideoItem();
+        reader.beginObject();
+        while( reader.hasNext() ) {
+            String name = reader.nextName();
+            if( "videoId".equals(name) ) {
+                videoItem.setVideoId(readString(reader));
+            }
+            else if( "video".equals(name) ) {
+                videoItem.setVideo(readString(reader));
+            }
+            else if( "thumbnail".equals(name) ) {
+                videoItem.setThumbnail(readString(reader));
+            }
+            else if( "poster".equals(name) ) {
+                videoItem.setPoster(readString(reader));
+            }
+            else if( "title".equals(name) ) {
+                videoItem.setTitle(readString(reader));
+            }
+            else if( "isProtected".equals(name) ) {
+                videoItem.setIsProtected(readBoolean(reader));
+            }
+            else if( "resourceId".equals(name) ) {
+                videoItem.setResourceId(readString(reader));
+            }
+            else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return videoItem;
+    }
+
+    /**
+     * Writes a video item as its Json object, leaving out the null fields
+     * @param writer the Json writer
+     * @param videoItem the video item, or null
+     * @throws IOException if the video item could not be written
+     * @since 1.0
+     */
+    @Override
+    public void write(JsonWriter writer, VideoItem videoItem) throws IOException {
+        if( videoItem == null ) {
+            writer.nullValue();
+            return;
+        }
+        writer.beginObject();
+        writeString(writer, "videoId", videoItem.getVideoId());
+        writeString(writer, "video", videoItem.getVideo());
+        writeString(writer, "thumbnail", videoItem.getThumbnail());
+        writeString(writer, "poster", videoItem.getPoster());
+        writeString(writer, "title", videoItem.getTitle());
+        writer.name("isProtected").value(videoItem.getIsProtected());
+        writeString(writer, "resourceId", videoItem.getResourceId());
+        writer.endObject();
+    }
+
+    /**
+     * Reads a string member, accepting a number or a boolean as its string, as the reflective binding does
+     * @param reader the Json reader, positioned at the member value
+     * @return the string, or null for a Json null
+     * @throws IOException if the member could not be read
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if( token == JsonToken.NULL ) {
+            reader.nextNull();
+            return null;
+        }
+        if( token == JsonToken.BOOLEAN ) {
+            return Boolean.toString(reader.nextBoolean());
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads a boolean member, accepting a string as its boolean, as the reflective binding does
+     * @param reader the Json reader, positioned at the member value
+     * @return the boolean, or false for a Json null
+     * @throws IOException if the member could not be read
+     */
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if( token == JsonToken.NULL ) {
+            reader.nextNull();
+            return false;
+        }
+        if( token == JsonToken.STRING ) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Writes a string member, unless null
+     * @param writer the Json writer
+     * @param name the member name
+     * @param value the member value, or null
+     * @throws IOException if the member could not be written
+     */
+    private static void writeString(JsonWriter writer, String name, String value) throws IOException {
+        if( value != null ) {
+            writer.name(name).value(value);
+        }
+    }
+}
@@ -1,24 +1,61 @@
 package com.brightcove.examples.model;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.util.Log;
-import com.google.gson.Gson;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Factory class for loading the video items to display,
- * and also for the video url lookup map
+ * and also for the video url lookup map.
+ * <p>
+ * The catalogs are read from the binary {@link com.brightcove.examples.model.CatalogSnapshot} generated at build time,
+ * and only when the application has no snapshot, parsed from the Json catalogs by a streaming
+ * {@link com.brightcove.examples.model.VideoCatalogParser}, without ever holding the whole Json content in memory.
+ * <p>
+ * The video urls are looked up in a {@link com.brightcove.examples.model.VideoIndex}, which is built once
+ * in the background and then kept until the video catalog changes.
+ * <p>
+ * Once the playlist has been synchronized with a remote catalog feed, the synchronized copy replaces both the snapshot
+ * and the Json playlist of the application assets
  * @author Maximilian Nyman (max.nyman@anvilcreative.com)
  * @since 1.0
  */
 public class VideoPlaylistFactory {
+    // The directory of the synchronized catalog, in the application files directory
+    private static final String SYNC_DIRECTORY = "catalog";
 
     private static Context appContext;
+    // The memoized video url index, built once in the background. Guarded by VideoPlaylistFactory.class
+    private static FutureTask<VideoIndex> videoIndexTask;
+    // The catalog snapshot, or null if the application has none. Guarded by VideoPlaylistFactory.class
+    private static CatalogSnapshot snapshot;
+    private static boolean isSnapshotOpened = false;
+    // Held while opening the catalog snapshot, so it is only opened once without holding VideoPlaylistFactory.class,
+    // which the main UI thread takes
+    private static final Object SNAPSHOT_LOCK = new Object();
+    // The Json playlist, held as a compact catalog once fully parsed. Guarded by VideoPlaylistFactory.class
+    private static CompactCatalog compactPlaylist;
+    // The title search index of the playlist, filled in the background. Guarded by VideoPlaylistFactory.class
+    private static TitleSearchIndex titleSearchIndex;
+    // Whether the playlist has been synchronized with the remote catalog feed, or null until checked.
+    // Guarded by VideoPlaylistFactory.class
+    private static Boolean isCatalogSynced;
+    // Incremented whenever the synchronized catalog changes, so the catalogs parsed before are dropped.
+    // Guarded by VideoPlaylistFactory.class
+    private static int catalogGeneration = 0;
 
     /**
      * Loads and parses the video playlist
@@ -27,69 +64,395 @@ public class VideoPlaylistFactory {
      * @since 1.0
      */
     public static ArrayList<VideoItem> getPlaylist(Context context) {
+        final ArrayList<VideoItem> playlist = new ArrayList<VideoItem>();
+        loadPlaylist(context, new VideoCatalogParser.Callback() {
+            @Override
+            public void onVideoItem(VideoItem videoItem) {
+                playlist.add(videoItem);
+            }
+        });
+        return playlist;
+    }
+
+    /**
+     * Loads and parses the video playlist incrementally, handing each video item to the callback as soon as it is parsed
+     * @param context the application context to use for retrieving the playlist Json file
+     * @param callback the callback receiving each video item, on the calling thread
+     * @return true if the whole playlist was loaded, or false if it could only be partially loaded, if at all
+     * @since 1.0
+     */
+    public static boolean loadPlaylist(Context context, VideoCatalogParser.Callback callback) {
         appContext = context;
-        String jsonPlaylist = loadJSONFromAsset("sample_playlist.json");
-        VideoPlaylist playlistWrapper = new Gson().fromJson(jsonPlaylist, VideoPlaylist.class);
-        return playlistWrapper.playlist;
+        CatalogSnapshot catalogSnapshot = getSnapshot();
+        if( catalogSnapshot != null ) {
+            for( int i = 0; i < catalogSnapshot.getPlaylistSize(); i++ ) {
+                callback.onVideoItem(catalogSnapshot.getPlaylistItem(i));
+            }
+            return true;
+        }
+        return parsePlaylist(callback);
     }
 
     /**
-     * Loads and parses the video lookup map for the video urls
-     * @return the video lookup map for the video urls
+     * Gets a paged playlist, which only keeps a window of pages of the playlist in memory.
+     * The pages are read from the catalog snapshot, or else from a {@link com.brightcove.examples.model.CompactCatalog}
+     * of the playlist Json file, parsed in full when the playlist size is first counted.
+     * The playlist must still be opened, once its listener is set
+     * @param context the application context to use for retrieving the playlist
+     * @return the paged playlist
+     * @see com.brightcove.examples.model.PagedPlaylist#open()
      * @since 1.0
      */
-    public static Map<String,String> getVideos() {
-        String jsonPlaylist = loadJSONFromAsset("sample_videos.json");
-        VideoLookup videosWrapper = new Gson().fromJson(jsonPlaylist, VideoLookup.class);
-        return videosWrapper.getLookup();
+    public static PagedPlaylist getPagedPlaylist(Context context) {
+        synchronized(VideoPlaylistFactory.class) {
+            if( appContext == null ) {
+                appContext = context.getApplicationContext();
+            }
+        }
+        PagedPlaylist.PageSource source = new PagedPlaylist.PageSource() {
+            @Override
+            public int getCount() throws IOException {
+                CatalogSnapshot catalogSnapshot = getSnapshot();
+                if( catalogSnapshot != null ) {
+                    return catalogSnapshot.getPlaylistSize();
+                }
+                return getCompactPlaylist().size();
+            }
+
+            @Override
+            public List<VideoItem> getPage(int offset, int count) throws IOException {
+                final List<VideoItem> page = new ArrayList<VideoItem>(count);
+                CatalogSnapshot catalogSnapshot = getSnapshot();
+                if( catalogSnapshot != null ) {
+                    int end = Math.min(offset + count, catalogSnapshot.getPlaylistSize());
+                    for( int i = offset; i < end; i++ ) {
+                        page.add(catalogSnapshot.getPlaylistItem(i));
+                    }
+                    return page;
+                }
+                CompactCatalog catalog;
+                synchronized(VideoPlaylistFactory.class) {
+                    catalog = compactPlaylist;
+                }
+                if( catalog != null ) {
+                    int end = Math.min(offset + count, catalog.size());
+                    for( int i = offset; i < end; i++ ) {
+                        page.add(catalog.getItem(i));
+                    }
+                    return page;
+                }
+                // Only the first page is parsed before the compact catalog is built
+                new VideoCatalogParser().parse(openPlaylist(), "playlist", offset, count,
+                        new VideoCatalogParser.Callback() {
+                            @Override
+                            public void onVideoItem(VideoItem videoItem) {
+                                page.add(videoItem);
+                            }
+                        });
+                return page;
+            }
+        };
+        return new PagedPlaylist(source, AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     /**
-     * Loads the Json file from the application assets and returns the Json content
-     * @param jsonFile the Json file to load from the application assets
-     * @return the Json content of the loaded Json file
+     * Gets the title search index of the playlist, starting to fill it in the background the first time.
+     * The index can be searched straight away, matching the titles indexed so far, and is marked complete once filled
+     * @param context the application context to use for retrieving the playlist
+     * @return the title search index
      * @since 1.0
      */
-    private static String loadJSONFromAsset(String jsonFile) {
-        String json = null;
-        try {
-            InputStream is = appContext.getAssets().open(jsonFile);
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
-            is.close();
-            json = new String(buffer, "UTF-8");
+    public static synchronized TitleSearchIndex getTitleSearchIndex(Context context) {
+        if( titleSearchIndex != null ) {
+            return titleSearchIndex;
+        }
+        if( appContext == null ) {
+            appContext = context.getApplicationContext();
+        }
+        final TitleSearchIndex index = new TitleSearchIndex();
+        titleSearchIndex = index;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CatalogSnapshot catalogSnapshot = getSnapshot();
+                    if( catalogSnapshot != null ) {
+                        for( int i = 0; i < catalogSnapshot.getPlaylistSize(); i++ ) {
+                            index.add(catalogSnapshot.getPlaylistItem(i).getTitle());
+                        }
+                    }
+                    else {
+                        parsePlaylist(index);
+                    }
+                }
+                finally {
+                    index.complete();
+                }
+            }
+        });
+        return index;
+    }
 
-        } catch (IOException ioe) {
-            Log.e("[VideoPlaylistFactory#loadJSONFromAsset]", ioe.getMessage());
-            ioe.printStackTrace();
-            return null;
+    /**
+     * Starts building the video url index in the background, unless already built or being built,
+     * so it is ready by the time the first video is requested. The catalog snapshot, which has its own index,
+     * is also opened in the background, so this can be called from the main UI thread
+     * @param context the context to use for retrieving the video Json file
+     * @see #getVideoUrl(String)
+     * @since 1.0
+     */
+    public static void prepareVideoIndex(Context context) {
+        synchronized(VideoPlaylistFactory.class) {
+            if( appContext == null ) {
+                appContext = context.getApplicationContext();
+            }
         }
-        return json;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The snapshot has its own index
+                if( getSnapshot() == null ) {
+                    getVideoIndexTask();
+                }
+            }
+        });
+    }
 
+    /**
+     * Gets the video url of a video, from the memoized video url index.
+     * Waits for the index if it is still being built, so must not be called from the main UI thread
+     * @param videoId the video identifier
+     * @return the video url, or null if the video is unknown or the index could not be built
+     * @see #prepareVideoIndex(android.content.Context)
+     * @since 1.0
+     */
+    public static String getVideoUrl(String videoId) {
+        CatalogSnapshot catalogSnapshot = getSnapshot();
+        if( catalogSnapshot != null ) {
+            return catalogSnapshot.getVideoUrl(videoId);
+        }
+        FutureTask<VideoIndex> indexTask = getVideoIndexTask();
+        try {
+            return indexTask.get().get(videoId);
+        }
+        catch( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( ExecutionException ee ) {
+            Log.e("[VideoPlaylistFactory#getVideoUrl]", "Unable to build the video index: " + ee.getCause());
+            // Lets the next lookup retry building the index
+            synchronized(VideoPlaylistFactory.class) {
+                if( videoIndexTask == indexTask ) {
+                    videoIndexTask = null;
+                }
+            }
+            return null;
+        }
     }
 
     /**
-     * Internal class for parsing the Json Playlist
+     * Discards the video url index, so it is rebuilt on the next lookup. Called when the video catalog has changed
      * @since 1.0
      */
-    class VideoPlaylist {
-        public ArrayList<VideoItem> playlist;
+    public static synchronized void invalidateVideoIndex() {
+        videoIndexTask = null;
     }
 
     /**
-     * Internal class for parsing the Json Video Lookup map
+     * Synchronizes the playlist with a remote catalog feed, only downloading the changes since the last synchronization.
+     * Once changed, the playlist, the title search index and the video url index are all read from the synchronized catalog.
+     * Makes a network request, so must not be called from the main UI thread
+     * @param context the application context to use for storing the synchronized catalog
+     * @param feedUrl the url of the catalog feed
+     * @return the changes of the playlist, to apply to the displayed playlist
+     * @throws IOException if the catalog feed could not be synchronized, the playlist then being left unchanged
+     * @see com.brightcove.examples.model.PagedPlaylist#applyChanges(com.brightcove.examples.model.CatalogSync.Changes)
      * @since 1.0
      */
-    class VideoLookup {
-        public ArrayList<VideoItem> videos;
+    public static CatalogSync.Changes syncCatalog(Context context, String feedUrl) throws IOException {
+        synchronized(VideoPlaylistFactory.class) {
+            if( appContext == null ) {
+                appContext = context.getApplicationContext();
+            }
+        }
+        CatalogSync catalogSync = new CatalogSync(new URL(feedUrl), new File(appContext.getFilesDir(), SYNC_DIRECTORY));
+        CatalogSync.Changes changes = catalogSync.sync();
+        if( changes.hasChanges() ) {
+            synchronized(VideoPlaylistFactory.class) {
+                isCatalogSynced = true;
+                catalogGeneration++;
+                compactPlaylist = null;
+                titleSearchIndex = null;
+                videoIndexTask = null;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Gets the catalog snapshot, opening it the first time.
+     * Opening reads the snapshot asset, so must not be called from the main UI thread
+     * @return the catalog snapshot, or null if the application has none, or the playlist has been synchronized
+     */
+    private static CatalogSnapshot getSnapshot() {
+        synchronized(VideoPlaylistFactory.class) {
+            if( getSyncedCatalog() != null ) {
+                return null;
+            }
+            if( isSnapshotOpened ) {
+                return snapshot;
+            }
+        }
+        synchronized(SNAPSHOT_LOCK) {
+            Context context;
+            synchronized(VideoPlaylistFactory.class) {
+                if( isSnapshotOpened ) {
+                    return getSyncedCatalog() == null ? snapshot : null;
+                }
+                context = appContext;
+            }
+            CatalogSnapshot catalogSnapshot = CatalogSnapshot.open(context);
+            synchronized(VideoPlaylistFactory.class) {
+                snapshot = catalogSnapshot;
+                isSnapshotOpened = true;
+                return getSyncedCatalog() == null ? snapshot : null;
+            }
+        }
+    }
+
+    /**
+     * Gets the compact catalog of the Json playlist, parsing the playlist the first time
+     * @return the compact playlist
+     * @throws IOException if the playlist could not be parsed
+     */
+    private static CompactCatalog getCompactPlaylist() throws IOException {
+        int generation;
+        synchronized(VideoPlaylistFactory.class) {
+            if( compactPlaylist != null ) {
+                return compactPlaylist;
+            }
+            generation = catalogGeneration;
+        }
+        // Parsed outside of the lock, a concurrent first parse only wasting time
+        CompactCatalog.Builder builder = new CompactCatalog.Builder();
+        new VideoCatalogParser().parse(openPlaylist(), "playlist", builder);
+        CompactCatalog catalog = builder.build();
+        synchronized(VideoPlaylistFactory.class) {
+            if( generation != catalogGeneration ) {
+                // Parsed from the catalog before it was synchronized, so not kept
+                return catalog;
+            }
+            if( compactPlaylist == null ) {
+                compactPlaylist = catalog;
+            }
+            return compactPlaylist;
+        }
+    }
+
+    /**
+     * Gets the synchronized catalog file, checking whether it exists the first time
+     * @return the synchronized catalog file, or null if the playlist has never been synchronized
+     */
+    private static synchronized File getSyncedCatalog() {
+        File catalogFile = new File(new File(appContext.getFilesDir(), SYNC_DIRECTORY), CatalogSync.CATALOG_FILE);
+        if( isCatalogSynced == null ) {
+            isCatalogSynced = catalogFile.isFile();
+        }
+        return isCatalogSynced ? catalogFile : null;
+    }
+
+    /**
+     * Opens the Json playlist, from the synchronized catalog if any, or else from the application assets
+     * @return the input stream of the Json playlist
+     * @throws IOException if the playlist could not be opened
+     */
+    private static InputStream openPlaylist() throws IOException {
+        File catalogFile = getSyncedCatalog();
+        if( catalogFile != null ) {
+            return new FileInputStream(catalogFile);
+        }
+        return appContext.getAssets().open("sample_playlist.json");
+    }
+
+    /**
+     * Gets the task building the video url index, and starts it if not already started
+     * @return the index task
+     */
+    private static synchronized FutureTask<VideoIndex> getVideoIndexTask() {
+        if( videoIndexTask == null ) {
+            videoIndexTask = new FutureTask<VideoIndex>(new Callable<VideoIndex>() {
+                @Override
+                public VideoIndex call() throws Exception {
+                    final VideoIndex.Builder builder = new VideoIndex.Builder();
+                    new VideoCatalogParser().parse(appContext.getAssets().open("sample_videos.json"), "videos", builder);
+                    if( getSyncedCatalog() != null ) {
+                        // The video urls of the synchronized video items take precedence
+                        new VideoCatalogParser().parse(openPlaylist(), "playlist", new VideoCatalogParser.Callback() {
+                            @Override
+                            public void onVideoItem(VideoItem videoItem) {
+                                if( videoItem.getVideo() != null && videoItem.getVideo().length() > 0 ) {
+                                    builder.onVideoItem(videoItem);
+                                }
+                            }
+                        });
+                    }
+                    return builder.build();
+                }
+            });
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(videoIndexTask);
+        }
+        return videoIndexTask;
+    }
 
-        public Map<String,String> getLookup() {
-            Map<String,String> lookup = new HashMap<String,String>();
-            for( VideoItem videoItem : videos ) {
+    /**
+     * Loads and parses the video lookup map for the video urls
+     * @return the video lookup map for the video urls
+     * @see #getVideoUrl(String)
+     * @since 1.0
+     */
+    public static Map<String,String> getVideos() {
+        final Map<String,String> lookup = new HashMap<String,String>();
+        parseJSONFromAsset("sample_videos.json", "videos", new VideoCatalogParser.Callback() {
+            @Override
+            public void onVideoItem(VideoItem videoItem) {
                 lookup.put(videoItem.getVideoId(), videoItem.getVideo());
             }
-            return lookup;
+        });
+        return lookup;
+    }
+
+    /**
+     * Streams the video items of the Json playlist to the callback
+     * @param callback the callback receiving each video item
+     * @return true if the whole playlist was parsed, or false if only the video items before the failure were passed to the callback
+     */
+    private static boolean parsePlaylist(VideoCatalogParser.Callback callback) {
+        try {
+            new VideoCatalogParser().parse(openPlaylist(), "playlist", callback);
+            return true;
+        } catch (IOException ioe) {
+            Log.e("[VideoPlaylistFactory#parsePlaylist]", ioe.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Streams the video items of a Json file from the application assets to the callback
+     * @param jsonFile the Json file to load from the application assets
+     * @param arrayName the name of the video item array in the Json file
+     * @param callback the callback receiving each video item
+     * @return true if the whole Json file was parsed, or false if only the video items before the failure were passed to the callback
+     * @since 1.0
+     */
+    private static boolean parseJSONFromAsset(String jsonFile, String arrayName, VideoCatalogParser.Callback callback) {
+        try {
+            new VideoCatalogParser().parse(appContext.getAssets().open(jsonFile), arrayName, callback);
+            return true;
+        } catch (IOException ioe) {
+            Log.e("[VideoPlaylistFactory#parseJSONFromAsset]", ioe.getMessage());
+            ioe.printStackTrace();
+            return false;
         }
     }
 
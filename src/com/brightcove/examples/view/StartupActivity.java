@@ -4,7 +4,11 @@ import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.View;
 import android.widget.*;
 import com.brightcove.auth.IAuthDelegate;
@@ -14,6 +18,10 @@ import com.brightcove.auth.model.IProvider;
 import com.brightcove.examples.R;
 import com.brightcove.examples.adapters.VideoListAdapter;
 import com.brightcove.examples.delegates.VideoDelegate;
+import com.brightcove.examples.delegates.VideoResolutionCache;
+import com.brightcove.examples.model.CatalogSync;
+import com.brightcove.examples.model.PagedPlaylist;
+import com.brightcove.examples.model.TitleSearchIndex;
 import com.brightcove.examples.model.VideoItem;
 import com.brightcove.examples.model.VideoPlaylistFactory;
 import com.brightcove.player.event.Event;
@@ -23,7 +31,12 @@ import com.brightcove.player.event.EventType;
 import com.brightcove.player.model.Video;
 import com.brightcove.player.view.BrightcoveVideoView;
 import com.brightcove.utils.DownloadImageTask;
+import com.brightcove.utils.ImageExecutor;
+import com.brightcove.utils.ImagePrefetcher;
+import com.brightcove.utils.ImageStats;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -36,6 +49,10 @@ public class StartupActivity extends AbstractOptionActivity {
     // Activity Request Code
     private final static int MVPD_PICKER = 33;
     private final static int MVPD_LOGIN = 34;
+    // The maximum number of title search matches displayed
+    private final static int MAX_SEARCH_RESULTS = 200;
+    // The file the image pipeline statistics are dumped to, in the external application files directory if available
+    private final static String IMAGE_STATS_FILE = "image-stats.txt";
 
     // Auth Delegate to manage all the authentication/authorization interaction
     private IAuthDelegate adobePass;
@@ -43,6 +60,12 @@ public class StartupActivity extends AbstractOptionActivity {
     private GridView videoGrid;
     // Adapter for for the Video Selector GridView
     private VideoListAdapter videoListAdapter;
+    // The Video metadata of the Adapter, loaded page by page
+    private PagedPlaylist playlist;
+    // The type-ahead title search field, filtering the Video Selector GridView
+    private EditText videoSearch;
+    // The title search index the current filter was searched in, replaced whenever the Video metadata is synchronized
+    private TitleSearchIndex titleSearchIndex;
     // Delegate instance for Validation and video retrieval
     private VideoDelegate videoDelegate;
     // Progress dialog instance to display progress messages
@@ -63,7 +86,7 @@ public class StartupActivity extends AbstractOptionActivity {
      * @see com.brightcove.auth.ap.delegates.AdobePassDelegate
      * @see com.brightcove.auth.ap.delegates.AdobePassDelegate#getInstance(android.content.Context, com.brightcove.auth.IAuthConfig, com.brightcove.player.event.EventEmitter)
      * @see com.brightcove.auth.ap.delegates.AdobePassDelegate#init()
-     * @see com.brightcove.examples.model.VideoPlaylistFactory#getPlaylist(android.content.Context)
+     * @see com.brightcove.examples.model.PagedPlaylist
      * @see com.brightcove.examples.adapters.VideoListAdapter
      * @see com.brightcove.examples.delegates.VideoDelegate
      * @since 1.0
@@ -114,16 +137,168 @@ public class StartupActivity extends AbstractOptionActivity {
         adobePass.init();
 
 
-        // Getting the Video metadata and setting up the VideoGrid
-        ArrayList<VideoItem> videos = VideoPlaylistFactory.getPlaylist(this);
+        // Building the video url index in the background, in parallel with the rest of the startup
+        VideoPlaylistFactory.prepareVideoIndex(this);
+
+        // Setting up the VideoGrid, and then loading the Video metadata into it in the background
         videoGrid = (GridView) findViewById(R.id.video_grid_view);
-        videoListAdapter = new VideoListAdapter(this, R.layout.video_grid_item, videos);
+        playlist = VideoPlaylistFactory.getPagedPlaylist(this);
+        videoListAdapter = new VideoListAdapter(this, R.layout.video_grid_item, playlist);
         videoGrid.setAdapter(videoListAdapter);
         videoGrid.setOnItemClickListener(onVideoItemClickListener);
-        videoListAdapter.notifyDataSetChanged();
+        videoGrid.setOnScrollListener(new ImagePrefetcher(this, videoListAdapter));
+        playlist.setListener(new PagedPlaylist.Listener() {
+            @Override
+            public void onPlaylistChanged() {
+                videoListAdapter.notifyDataSetChanged();
+            }
+        });
+        playlist.open();
+
+        // Setting up the type-ahead title search, filtering the VideoGrid
+        getTitleSearchIndex();
+        videoSearch = (EditText) findViewById(R.id.video_search);
+        videoSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+                filterVideos();
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+            }
+        });
+
+        // Synchronizing the Video metadata with the remote catalog feed, if configured, in the background
+        String catalogFeedUrl = getResources().getString(R.string.catalogFeedUrl);
+        if( catalogFeedUrl.length() > 0 ) {
+            new SyncCatalogTask().execute(catalogFeedUrl);
+        }
 
         // Initiating the VideoDelegate, which handles the Validation and getting the Video rendition(s)
-        videoDelegate = new VideoDelegate(eventEmitter);
+        videoDelegate = new VideoDelegate(this, eventEmitter);
+    }
+
+    /**
+     * Filters the VideoGrid by the title search query,
+     * from the current title search index, which is rebuilt whenever the Video metadata is synchronized
+     * @since 1.0
+     */
+    private void filterVideos() {
+        String query = videoSearch.getText().toString();
+        videoListAdapter.setFilter(getTitleSearchIndex().search(query, MAX_SEARCH_RESULTS));
+    }
+
+    /**
+     * Gets the current title search index, listening for its completion to filter the VideoGrid again
+     * over all the titles, as the index is searched while still being filled
+     * @return the title search index
+     * @since 1.0
+     */
+    private TitleSearchIndex getTitleSearchIndex() {
+        TitleSearchIndex index = VideoPlaylistFactory.getTitleSearchIndex(this);
+        if( index != titleSearchIndex ) {
+            if( titleSearchIndex != null ) {
+                titleSearchIndex.setListener(null);
+            }
+            titleSearchIndex = index;
+            titleSearchIndex.setListener(titleSearchIndexListener);
+        }
+        return index;
+    }
+
+    // Filters the VideoGrid again once the title search index is complete, if searching
+    private TitleSearchIndex.Listener titleSearchIndexListener = new TitleSearchIndex.Listener() {
+        @Override
+        public void onIndexComplete() {
+            if( videoSearch.getText().length() > 0 ) {
+                filterVideos();
+            }
+        }
+    };
+
+    /**
+     * Dumps the image pipeline statistics in the background whenever the activity is no longer visible,
+     * for offline analysis, e.g. once pulled with {@code adb pull}
+     * @since 1.0
+     */
+    @Override
+    protected void onStop() {
+        File filesDir = getExternalFilesDir(null);
+        final File statsFile = new File(filesDir != null ? filesDir : getFilesDir(), IMAGE_STATS_FILE);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ImageStats.getInstance().dump(statsFile);
+                }
+                catch( IOException ioe ) {
+                    Log.e("[StartupActivity#onStop]", "Unable to dump the image statistics: " + ioe.getMessage());
+                }
+            }
+        });
+        super.onStop();
+    }
+
+    /**
+     * Stops loading the Video metadata, cancels any running video request, and stops listening to the title search index,
+     * when the activity is destroyed
+     * @since 1.0
+     */
+    @Override
+    protected void onDestroy() {
+        if( playlist != null ) {
+            playlist.close();
+        }
+        if( videoDelegate != null ) {
+            videoDelegate.cancel();
+        }
+        if( titleSearchIndex != null ) {
+            titleSearchIndex.setListener(null);
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Internal AsyncTask class to synchronize the Video metadata with the remote catalog feed,
+     * and then apply only the changed Video metadata to the VideoGrid
+     * @since 1.0
+     */
+    private class SyncCatalogTask extends AsyncTask<String, Void, CatalogSync.Changes> {
+        /**
+         * Background process for synchronizing the Video metadata
+         * @param feedUrls string array with the url of the catalog feed
+         * @return the changes of the Video metadata, or null if it could not be synchronized
+         * @since 1.0
+         */
+        @Override
+        protected CatalogSync.Changes doInBackground(String... feedUrls) {
+            try {
+                return VideoPlaylistFactory.syncCatalog(currentContext, feedUrls[0]);
+            }
+            catch( IOException ioe ) {
+                Log.e("[StartupActivity$SyncCatalogTask]", "Unable to sync the catalog: " + ioe.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Applies the changes to the playlist of the VideoGrid, and filters it again by the current title search query
+         * @param changes the changes of the Video metadata, or null
+         * @since 1.0
+         */
+        @Override
+        protected void onPostExecute(CatalogSync.Changes changes) {
+            if( changes == null || !changes.hasChanges() ) {
+                return;
+            }
+            playlist.applyChanges(changes);
+            filterVideos();
+        }
     }
 
     /*
@@ -168,6 +343,8 @@ public class StartupActivity extends AbstractOptionActivity {
      */
     @Override
     protected void logout() {
+        // The validated videos are only valid for the signed in user
+        VideoResolutionCache.getInstance().clear();
         videoListAdapter.setAuthenticated(false);
         brightcoveVideoView.stopPlayback();
         brightcoveVideoView.clear();
@@ -195,6 +372,7 @@ public class StartupActivity extends AbstractOptionActivity {
         @Override
         public void processEvent(Event event) {
             enableLogin();
+            VideoResolutionCache.getInstance().clear();
             videoListAdapter.setAuthenticated(false);
             Toast.makeText(getApplicationContext(), "Not Authenticated", Toast.LENGTH_LONG).show();
         }
@@ -268,6 +446,10 @@ public class StartupActivity extends AbstractOptionActivity {
     AdapterView.OnItemClickListener onVideoItemClickListener = new AdapterView.OnItemClickListener() {
         public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
             VideoItem videoItem = (VideoItem) adapterView.getItemAtPosition(position);
+            // Ignores the items of the playlist pages still loading
+            if( videoItem == null ) {
+                return;
+            }
 
             brightcoveVideoView.stopPlayback();
             brightcoveVideoView.clear();
@@ -289,8 +471,9 @@ public class StartupActivity extends AbstractOptionActivity {
             }
 
 
-            linearLayout.setBackgroundDrawable(null);
-            new DownloadImageTask(linearLayout).execute(videoItem.getPoster(), videoItem.getThumbnail());
+            // Shows the cached grid thumbnail as the backdrop straight away, until the poster is loaded
+            DownloadImageTask.loadProgressive(linearLayout, videoItem.getThumbnail(), ImageExecutor.Priority.BACKGROUND,
+                    DownloadImageTask.Fallback.HEDGED, videoItem.getPoster(), videoItem.getThumbnail());
         }
     };
 
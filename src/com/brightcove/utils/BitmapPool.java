@@ -0,0 +1,279 @@
+package com.brightcove.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Process wide pool of bitmaps no longer in use, which are reused by the {@link com.brightcove.utils.ImageDecoder}
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap} instead of allocating new bitmaps.
+ * <p>
+ * Bitmaps are reference counted while held by the {@link com.brightcove.utils.ImageMemoryCache},
+ * by a load in progress, or displayed by a view element, and only enter the pool once the last reference is released.
+ * The pooled bitmaps are bucketed by their allocation byte count, and the least recently pooled bitmaps
+ * are dropped when the byte budget is exceeded.
+ * <p>
+ * The pool is only enabled from KitKat, where any pooled bitmap with a large enough allocation can be reused.
+ * Before KitKat a bitmap can only be reused for an image of exactly the same size decoded without any scaling,
+ * which the scaled down thumbnails never are, so nothing is pooled and every decode allocates a new bitmap.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see android.graphics.BitmapFactory.Options#inBitmap
+ * @since 1.0
+ */
+public class BitmapPool {
+    /**
+     * The part of the application memory class (heap limit) used for the pool when no explicit budget is set
+     * @since 1.0
+     */
+    public static final int DEFAULT_MEMORY_DIVISOR = 16;
+
+    // Build.VERSION_CODES.KITKAT, which is not available to the android-15 build target
+    private static final int KITKAT = 19;
+    // Whether pooled bitmaps can be reused for any image with a smaller allocation
+    private static final boolean IS_ENABLED = Build.VERSION.SDK_INT >= KITKAT;
+    // Bitmap#getAllocationByteCount(), looked up once as it is not available to the android-15 build target
+    private static Method getAllocationByteCountMethod;
+
+    // Singleton static instance variable
+    private static volatile BitmapPool instance;
+
+    private final int maxBytes;
+    private int size = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    // The reference count of the bitmaps in use. Weakly keyed, so a bitmap that is never released is not leaked
+    private final WeakHashMap<Bitmap, Integer> references = new WeakHashMap<Bitmap, Integer>();
+    // The pooled bitmaps, bucketed by allocation byte count
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+    // The pooled bitmaps, in the order they were pooled
+    private final LinkedList<Bitmap> pooled = new LinkedList<Bitmap>();
+
+    /**
+     * Private constructor to construct a new BitmapPool instance.
+     * Only called the very first time the getInstance is invoked
+     * @param maxBytes the maximum number of bitmap bytes to keep in the pool
+     * @since 1.0
+     */
+    private BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Static method to get or instantiate the singleton BitmapPool instance,
+     * using a byte budget of 1/{@link #DEFAULT_MEMORY_DIVISOR} of the application memory class
+     * @param context the context used to look up the memory class of the device
+     * @return the BitmapPool instance
+     * @see android.app.ActivityManager#getMemoryClass()
+     * @since 1.0
+     */
+    public static BitmapPool getInstance(Context context) {
+        if( instance == null ) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+            return getInstance(memoryClassBytes / DEFAULT_MEMORY_DIVISOR);
+        }
+        return instance;
+    }
+
+    /**
+     * Static method to get or instantiate the singleton BitmapPool instance with an explicit byte budget.
+     * The budget is only used if the instance has not already been created.
+     * @param maxBytes the maximum number of bitmap bytes to keep in the pool
+     * @return the BitmapPool instance
+     * @since 1.0
+     */
+    public static BitmapPool getInstance(int maxBytes) {
+        if( instance == null ) {
+            synchronized(BitmapPool.class) {
+                if( instance == null ) {
+                    instance = new BitmapPool(maxBytes);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a reference to a bitmap in use
+     * @param bitmap the bitmap in use
+     * @since 1.0
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        retain(bitmap, 1);
+    }
+
+    /**
+     * Adds a number of references to a bitmap in use
+     * @param bitmap the bitmap in use
+     * @param count the number of references to add
+     * @since 1.0
+     */
+    public synchronized void retain(Bitmap bitmap, int count) {
+        if( bitmap != null && count > 0 ) {
+            Integer references = this.references.get(bitmap);
+            this.references.put(bitmap, (references != null ? references : 0) + count);
+        }
+    }
+
+    /**
+     * Releases a reference to a bitmap, and adds it to the pool once no longer referenced
+     * @param bitmap the bitmap no longer in use by the caller
+     * @since 1.0
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if( bitmap == null ) {
+            return;
+        }
+        Integer references = this.references.get(bitmap);
+        if( references == null ) {
+            return;
+        }
+        if( references > 1 ) {
+            this.references.put(bitmap, references - 1);
+        }
+        else {
+            this.references.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Takes a pooled bitmap which can be reused for decoding an image of the given size
+     * @param width the decoded image width
+     * @param height the decoded image height
+     * @param config the decoded image configuration
+     * @return the bitmap to reuse, no longer in the pool, or null if none is suitable or the pool is not enabled
+     * @since 1.0
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if( !IS_ENABLED ) {
+            return null;
+        }
+        int byteCount = width * height * getBytesPerPixel(config);
+        Map.Entry<Integer, LinkedList<Bitmap>> bucket = buckets.ceilingEntry(byteCount);
+        if( bucket == null ) {
+            missCount++;
+            return null;
+        }
+        Bitmap bitmap = bucket.getValue().removeFirst();
+        if( bucket.getValue().isEmpty() ) {
+            buckets.remove(bucket.getKey());
+        }
+        pooled.remove(bitmap);
+        size -= bucket.getKey();
+        hitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap taken with {@link #get(int, int, android.graphics.Bitmap.Config)} which could not be reused
+     * @param bitmap the unused bitmap
+     * @since 1.0
+     */
+    public synchronized void putBack(Bitmap bitmap) {
+        if( bitmap != null && !references.containsKey(bitmap) ) {
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Drops all the pooled bitmaps
+     * @since 1.0
+     */
+    public synchronized void clear() {
+        buckets.clear();
+        pooled.clear();
+        size = 0;
+    }
+
+    /**
+     * Gets the number of bitmap bytes currently held by the pool
+     * @return the current pool size in bytes
+     * @since 1.0
+     */
+    public synchronized int getSizeBytes() { return size; }
+
+    /**
+     * Gets the number of decodes which reused a pooled bitmap
+     * @return the hit count
+     * @since 1.0
+     */
+    public synchronized int getHitCount() { return hitCount; }
+
+    /**
+     * Gets the number of decodes which found no pooled bitmap to reuse
+     * @return the miss count
+     * @since 1.0
+     */
+    public synchronized int getMissCount() { return missCount; }
+
+    /**
+     * Adds an unreferenced bitmap to the pool, and drops the least recently pooled bitmaps if the byte budget is exceeded
+     * @param bitmap the unreferenced bitmap
+     */
+    private void put(Bitmap bitmap) {
+        if( !IS_ENABLED || !bitmap.isMutable() || bitmap.isRecycled() || pooled.contains(bitmap) ) {
+            return;
+        }
+        int byteCount = getAllocationByteCount(bitmap);
+        if( byteCount > maxBytes ) {
+            return;
+        }
+        LinkedList<Bitmap> bucket = buckets.get(byteCount);
+        if( bucket == null ) {
+            bucket = new LinkedList<Bitmap>();
+            buckets.put(byteCount, bucket);
+        }
+        bucket.add(bitmap);
+        pooled.add(bitmap);
+        size += byteCount;
+
+        while( size > maxBytes && !pooled.isEmpty() ) {
+            Bitmap eldest = pooled.removeFirst();
+            int eldestByteCount = getAllocationByteCount(eldest);
+            LinkedList<Bitmap> eldestBucket = buckets.get(eldestByteCount);
+            if( eldestBucket != null ) {
+                eldestBucket.remove(eldest);
+                if( eldestBucket.isEmpty() ) {
+                    buckets.remove(eldestByteCount);
+                }
+            }
+            size -= eldestByteCount;
+        }
+    }
+
+    /**
+     * Gets the size of the memory allocated for a bitmap, which can be larger than the image it holds once reused
+     * @param bitmap the bitmap
+     * @return the allocation byte count, or the image byte count if the allocation byte count is not available
+     */
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        try {
+            if( getAllocationByteCountMethod == null ) {
+                getAllocationByteCountMethod = Bitmap.class.getMethod("getAllocationByteCount");
+            }
+            return (Integer) getAllocationByteCountMethod.invoke(bitmap);
+        }
+        catch( Exception e ) {
+            return bitmap.getByteCount();
+        }
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if( config == Bitmap.Config.ALPHA_8 ) {
+            return 1;
+        }
+        if( config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444 ) {
+            return 2;
+        }
+        return 4;
+    }
+}
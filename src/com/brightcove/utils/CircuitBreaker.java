@@ -0,0 +1,131 @@
+package com.brightcove.utils;
+
+/**
+ * Utility class tracking the health of a remote service, so its clients fail fast instead of piling onto it while it is unhealthy.
+ * <p>
+ * The circuit is {@link State#CLOSED} while the service is healthy. After a number of consecutive failed calls it opens,
+ * and every call is refused straight away for the open period. The first call after the open period is let through
+ * as a trial, with the circuit {@link State#HALF_OPEN}: its success closes the circuit again, and its failure re-opens it.
+ * <p>
+ * The open period is measured on a monotonic clock, and the class does not depend on Android.
+ * <p>
+ * Example:<br>
+ * {@code if( !breaker.allowRequest() ) { fail(); } try { call(); breaker.onSuccess(); } catch( IOException ioe ) { breaker.onFailure(); } }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @since 1.0
+ */
+public class CircuitBreaker {
+    /**
+     * The number of consecutive failures opening the circuit when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /**
+     * The time the circuit stays open when not set explicitly
+     * @since 1.0
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    /**
+     * The states of the circuit
+     * @since 1.0
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    // When the circuit was last opened, on the System.nanoTime clock
+    private long openedAt;
+    // Whether the trial call of the half open circuit is running
+    private boolean isTrialRunning = false;
+
+    /**
+     * Constructs a new CircuitBreaker with the default thresholds
+     * @since 1.0
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Constructs a new CircuitBreaker with explicit thresholds
+     * @param failureThreshold the number of consecutive failures opening the circuit
+     * @param openMillis the time the circuit stays open before letting a trial call through
+     * @since 1.0
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1000000L;
+    }
+
+    /**
+     * Checks whether a call may be made. A call let through must report its outcome,
+     * by {@link #onSuccess()} or {@link #onFailure()}
+     * @return true if the call may be made, or false if it must fail fast
+     * @since 1.0
+     */
+    public synchronized boolean allowRequest() {
+        if( state == State.CLOSED ) {
+            return true;
+        }
+        if( state == State.OPEN && System.nanoTime() - openedAt >= openNanos ) {
+            state = State.HALF_OPEN;
+            isTrialRunning = false;
+        }
+        if( state == State.HALF_OPEN && !isTrialRunning ) {
+            isTrialRunning = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reports a successful call, closing the circuit
+     * @since 1.0
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        isTrialRunning = false;
+    }
+
+    /**
+     * Reports a failed call, opening the circuit once the failure threshold is reached, or straight away for a trial call
+     * @since 1.0
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if( state == State.HALF_OPEN || consecutiveFailures >= failureThreshold ) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            isTrialRunning = false;
+        }
+    }
+
+    /**
+     * Reports a call which ended without telling about the health of the service, e.g. a cancelled call,
+     * letting another trial call through if it was the trial call
+     * @since 1.0
+     */
+    public synchronized void onIgnored() {
+        isTrialRunning = false;
+    }
+
+    /**
+     * Gets the current state of the circuit
+     * @return the circuit state
+     * @since 1.0
+     */
+    public synchronized State getState() {
+        if( state == State.OPEN && System.nanoTime() - openedAt >= openNanos ) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+}
@@ -1,40 +1,363 @@
 package com.brightcove.utils;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.graphics.drawable.TransitionDrawable;
 import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.ImageView;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility AsyncTask class to managing the loading of an image into a {@link android.widget.ImageView} or as a background to a {@link android.view.View}.
  * <p>
+ * The images are loaded through the shared {@link com.brightcove.utils.ImageLoader}, which caches them in memory and on disk,
+ * and lets tasks requesting the same image share a single download.
+ * Images are decoded at the size of the view element they are displayed in, see {@link #getTargetSize(android.view.View)}.
+ * An image already in the memory cache is displayed synchronously without starting a task when using {@link #load(android.view.View, String...)}.
+ * <p>
+ * Each view is bound to the one task started for it by {@link #load(android.view.View, String...)}, so when a recycled
+ * view is loaded with new images, the previous task is cancelled and its result is never displayed.
+ * Tasks started by load are run by the {@link com.brightcove.utils.ImageExecutor} with the requested
+ * {@link com.brightcove.utils.ImageExecutor.Priority}, {@link com.brightcove.utils.ImageExecutor.Priority#VISIBLE} by default.
+ * <p>
+ * The fallback images are tried one at a time by default. With the {@link com.brightcove.utils.DownloadImageTask.Fallback#HEDGED}
+ * fallback, the next image is also started if the current one has not loaded within a hedge delay adapted to the observed
+ * latency of its host, the first image loaded is displayed, and the others are cancelled.
+ * <p>
+ * With {@link #loadProgressive(android.view.View, String, com.brightcove.utils.ImageExecutor.Priority, com.brightcove.utils.DownloadImageTask.Fallback, String...)}
+ * an already cached low resolution image, e.g. the thumbnail of a poster, is displayed scaled up as a placeholder straight away,
+ * and the loaded image crossfades in over it.
+ * <p>
+ * The time each task waits to be run, the time its loaded image waits for the main UI thread to display it,
+ * and the cache tier each displayed image was served from are recorded in the {@link com.brightcove.utils.ImageStats}.
+ * <p>
+ * The bitmap displayed by each view is referenced in the {@link com.brightcove.utils.BitmapPool} until the view
+ * displays another image or is cleared, so its memory can then be reused for decoding other images.
+ * <p>
  * Example:<br>
- * {@code new DownloadImageTask(view).execute(imageUrl, fallbackImageUrl, ...); }
+ * {@code DownloadImageTask.load(view, imageUrl, fallbackImageUrl, ...); }
  *
  * @author Maximilian Nyman (max.nyman@anvilcreative.com)
  * @see android.os.AsyncTask
  * @since 1.0
  */
-public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
+public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> implements ImageLoader.Request {
+    // The duration of the crossfade from a placeholder to the loaded image
+    private static final int CROSSFADE_MILLIS = 300;
+
+    /**
+     * How the fallback images are tried when the preferred image is slow or fails to load
+     * @since 1.0
+     */
+    public enum Fallback {
+        /**
+         * Each fallback image is only started once the previous image has failed to load
+         */
+        SEQUENTIAL,
+        /**
+         * Each fallback image is also started once the previous image has not loaded within the hedge delay of its host,
+         * and the first image loaded wins
+         */
+        HEDGED
+    }
+
+    // The task currently bound to each view element. Only accessed from the main UI thread
+    private static final Map<View, DownloadImageTask> boundTasks = new WeakHashMap<View, DownloadImageTask>();
+    // The loaded bitmap currently displayed by each view element. Only accessed from the main UI thread
+    private static final Map<View, Bitmap> displayedBitmaps = new WeakHashMap<View, Bitmap>();
+
     // The view element to load the image for
     private final WeakReference<View> viewReference;
+    // The image loader shared by all the tasks
+    private final ImageLoader imageLoader;
+    // The requested image size in pixels, 0 if unconstrained
+    private final int width;
+    private final int height;
+    // How the fallback images are tried
+    private Fallback fallback = Fallback.SEQUENTIAL;
+    // Whether the loaded image crossfades in over a placeholder
+    private boolean isCrossfaded = false;
+    // The uptime in milliseconds the task was submitted at, and its image was loaded at
+    private long submittedAt;
+    private long loadedAt;
+    // The image urls requested by the task
+    private String[] urls;
+    // The cache tier the loaded image was served from
+    private volatile ImageStats.Tier servedTier;
 
     /**
-     * Construct a new DownloadImageTask for loading and displaying an image from an Url
+     * Construct a new DownloadImageTask for loading and displaying an image from an Url,
+     * decoded at the size of the view element
      * @param view the view element to load the image for
+     * @see #getTargetSize(android.view.View)
      * @since 1.0
      */
     public DownloadImageTask(View view) {
+        this(view, getTargetSize(view));
+    }
+
+    /**
+     * Construct a new DownloadImageTask for loading and displaying an image from an Url, decoded at the requested size
+     * @param view the view element to load the image for
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @since 1.0
+     */
+    public DownloadImageTask(View view, int width, int height) {
         viewReference = new WeakReference<View>(view);
+        imageLoader = ImageLoader.getInstance(view.getContext());
+        this.width = width;
+        this.height = height;
+    }
+
+    private DownloadImageTask(View view, int[] size) {
+        this(view, size[0], size[1]);
+    }
+
+    /**
+     * Displays the image in the view element, decoded at the size of the view element
+     * @param view the view element to load the image for
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see #load(android.view.View, int, int, String...)
+     * @see #getTargetSize(android.view.View)
+     * @since 1.0
+     */
+    public static void load(View view, String... urls) {
+        load(view, ImageExecutor.Priority.VISIBLE, urls);
+    }
+
+    /**
+     * Displays the image in the view element with the given priority, decoded at the size of the view element
+     * @param view the view element to load the image for
+     * @param priority the priority of the loading
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see #load(android.view.View, com.brightcove.utils.ImageExecutor.Priority, int, int, String...)
+     * @see #getTargetSize(android.view.View)
+     * @since 1.0
+     */
+    public static void load(View view, ImageExecutor.Priority priority, String... urls) {
+        int[] size = getTargetSize(view);
+        load(view, priority, size[0], size[1], urls);
+    }
+
+    /**
+     * Displays the image in the view element, decoded at the requested size
+     * @param view the view element to load the image for
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see #load(android.view.View, com.brightcove.utils.ImageExecutor.Priority, int, int, String...)
+     * @since 1.0
+     */
+    public static void load(View view, int width, int height, String... urls) {
+        load(view, ImageExecutor.Priority.VISIBLE, width, height, urls);
+    }
+
+    /**
+     * Displays the image in the view element, directly from the memory cache if available,
+     * otherwise by starting a new DownloadImageTask bound to the view element.
+     * Any previous task bound to the view element for other images is cancelled.
+     * Must be called from the main UI thread
+     * @param view the view element to load the image for
+     * @param priority the priority of the loading
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see #load(android.view.View, com.brightcove.utils.ImageExecutor.Priority, com.brightcove.utils.DownloadImageTask.Fallback, int, int, String...)
+     * @since 1.0
+     */
+    public static void load(View view, ImageExecutor.Priority priority, int width, int height, String... urls) {
+        load(view, priority, Fallback.SEQUENTIAL, width, height, urls);
+    }
+
+    /**
+     * Displays the image in the view element with the given priority and fallback, decoded at the size of the view element
+     * @param view the view element to load the image for
+     * @param priority the priority of the loading
+     * @param fallback how the fallback images are tried
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see #getTargetSize(android.view.View)
+     * @since 1.0
+     */
+    public static void load(View view, ImageExecutor.Priority priority, Fallback fallback, String... urls) {
+        int[] size = getTargetSize(view);
+        load(view, priority, fallback, size[0], size[1], urls);
+    }
+
+    /**
+     * Displays the image in the view element, directly from the memory cache if available,
+     * otherwise by starting a new DownloadImageTask bound to the view element.
+     * Any previous task bound to the view element for other images is cancelled.
+     * Must be called from the main UI thread
+     * @param view the view element to load the image for
+     * @param priority the priority of the loading
+     * @param fallback how the fallback images are tried
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @since 1.0
+     */
+    public static void load(View view, ImageExecutor.Priority priority, Fallback fallback, int width, int height, String... urls) {
+        load(view, priority, fallback, width, height, null, urls);
+    }
+
+    /**
+     * Displays the largest cached image of the placeholder url in the view element straight away, scaled up to the view element,
+     * and then crossfades to the image once loaded, decoded at the size of the view element.
+     * The image is displayed directly if already in the memory cache, and without any placeholder if the placeholder is not cached.
+     * Must be called from the main UI thread
+     * @param view the view element to load the image for
+     * @param placeholderUrl the url of the low resolution image to display while loading, e.g. a thumbnail
+     * @param priority the priority of the loading
+     * @param fallback how the fallback images are tried
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @see com.brightcove.utils.ImageLoader#getCachedBitmapAnySize(String)
+     * @since 1.0
+     */
+    public static void loadProgressive(View view, String placeholderUrl, ImageExecutor.Priority priority, Fallback fallback, String... urls) {
+        int[] size = getTargetSize(view);
+        load(view, priority, fallback, size[0], size[1], placeholderUrl, urls);
+    }
+
+    /**
+     * Displays the image in the view element, directly from the memory cache if available, otherwise by starting a new task
+     * @param view the view element to load the image for
+     * @param priority the priority of the loading
+     * @param fallback how the fallback images are tried
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param placeholderUrl the url of the cached image to display while loading, or null to clear the view element instead
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     */
+    private static void load(View view, ImageExecutor.Priority priority, Fallback fallback, int width, int height,
+                             String placeholderUrl, String[] urls) {
+        DownloadImageTask boundTask = boundTasks.get(view);
+        if( boundTask != null && !boundTask.isCancelled() && Arrays.equals(boundTask.urls, urls)
+                && boundTask.width == width && boundTask.height == height ) {
+            // Already loading the same images for the view
+            return;
+        }
+        unbind(view);
+
+        if( urls.length > 0 ) {
+            Bitmap bitmap = ImageLoader.getInstance(view.getContext()).getCachedBitmap(urls[0], width, height);
+            if( bitmap != null ) {
+                setBitmap(view, bitmap);
+                ImageStats.getInstance().recordTier(ImageStats.Tier.MEMORY);
+                return;
+            }
+        }
+
+        // Displays the placeholder, or clears any image from the previous binding while loading
+        Bitmap placeholder = placeholderUrl != null
+                ? ImageLoader.getInstance(view.getContext()).getCachedBitmapAnySize(placeholderUrl) : null;
+        setBitmap(view, placeholder);
+        DownloadImageTask task = new DownloadImageTask(view, width, height);
+        task.urls = urls;
+        task.fallback = fallback;
+        task.isCrossfaded = placeholder != null;
+        boundTasks.put(view, task);
+        task.executeOnExecutor(ImageExecutor.getInstance().forTask(task, priority), urls);
+    }
+
+    /**
+     * Gets the size to decode the images for the view element at.
+     * Uses the exact layout size of the view element if set, otherwise its laid out size if filling its parent,
+     * otherwise the space available in its closest laid out ancestor, and finally the screen size.
+     * An unconstrained wrap content height is returned as 0
+     * @param view the view element to get the size for
+     * @return the target width and height in pixels
+     * @since 1.0
+     */
+    public static int[] getTargetSize(View view) {
+        ViewGroup.LayoutParams params = view.getLayoutParams();
+        int width = getTargetDimension(params != null ? params.width : 0, view.getWidth());
+        int height = getTargetDimension(params != null ? params.height : 0, view.getHeight());
+
+        if( width <= 0 ) {
+            ViewParent parent = view.getParent();
+            while( parent instanceof View && width <= 0 ) {
+                View ancestor = (View) parent;
+                width = ancestor.getWidth() - ancestor.getPaddingLeft() - ancestor.getPaddingRight();
+                parent = ancestor.getParent();
+            }
+        }
+        DisplayMetrics displayMetrics = view.getResources().getDisplayMetrics();
+        if( width <= 0 ) {
+            width = displayMetrics.widthPixels;
+        }
+        if( height <= 0 && params != null && params.height != ViewGroup.LayoutParams.WRAP_CONTENT ) {
+            height = displayMetrics.heightPixels;
+        }
+        return new int[] { width, Math.max(height, 0) };
+    }
+
+    /**
+     * Gets a single dimension of the target size from the layout parameter and the laid out size
+     * @param layoutSize the layout parameter, either an exact size, MATCH_PARENT or WRAP_CONTENT
+     * @param laidOutSize the current laid out size, 0 if not laid out yet
+     * @return the target dimension, or 0 if unknown
+     */
+    private static int getTargetDimension(int layoutSize, int laidOutSize) {
+        if( layoutSize > 0 ) {
+            return layoutSize;
+        }
+        if( layoutSize == ViewGroup.LayoutParams.MATCH_PARENT ) {
+            return laidOutSize;
+        }
+        return 0;
+    }
+
+    /**
+     * Cancels any task bound to the view element and clears its image.
+     * Must be called from the main UI thread
+     * @param view the view element to clear
+     * @since 1.0
+     */
+    public static void clear(View view) {
+        unbind(view);
+        setBitmap(view, null);
+    }
+
+    /**
+     * Cancels and removes the task bound to the view element, if any
+     * @param view the view element to unbind
+     */
+    private static void unbind(View view) {
+        DownloadImageTask boundTask = boundTasks.remove(view);
+        if( boundTask != null ) {
+            boundTask.cancel(true);
+        }
+    }
+
+    /**
+     * Notes the submission time of the task, before it is queued.
+     * This part happens in the main UI thread
+     * @since 1.0
+     */
+    @Override
+    protected void onPreExecute() {
+        submittedAt = SystemClock.uptimeMillis();
     }
 
     /**
@@ -45,21 +368,121 @@ public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
      */
     @Override
     protected Bitmap doInBackground(String... urls) {
+        ImageStats.getInstance().record(ImageStats.Stage.QUEUE, SystemClock.uptimeMillis() - submittedAt);
+        Bitmap bitmap = fallback == Fallback.HEDGED && urls.length > 1 ? loadHedged(urls) : loadSequential(urls);
+        loadedAt = SystemClock.uptimeMillis();
+        return bitmap;
+    }
+
+    /**
+     * Loads the preferred image, and each fallback image in turn if the previous one fails to load
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @return the first loaded bitmap image, or null if none could be loaded
+     */
+    private Bitmap loadSequential(String[] urls) {
         Bitmap bitmap = null;
         for( String url : urls ) {
+            if( isCancelled() ) {
+                return null;
+            }
             try {
-                bitmap = getBitmapImage(url);
+                bitmap = imageLoader.getBitmap(url, width, height, this);
                 break;
             }
             catch( Exception e ) {
-                Log.d( "[DownloadImageTask#doInBackground]", "Unable to load image from url '" + url + "', attempts to load the next fallback image");
+                Log.d( "[DownloadImageTask#loadSequential]", "Unable to load image from url '" + url + "', attempts to load the next fallback image");
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Loads the preferred image, starting the next fallback image whenever the previous one fails,
+     * or has not loaded within the hedge delay of its host. The first image loaded wins and the others are cancelled
+     * @param urls string array of image url, starting with the preferred image url followed by any number of fallback images
+     * @return the first loaded bitmap image, or null if none could be loaded
+     */
+    private Bitmap loadHedged(String[] urls) {
+        CompletionService<Bitmap> completionService =
+                new ExecutorCompletionService<Bitmap>(ImageExecutor.getInstance().getHedgeExecutor());
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        Candidate winner = null;
+        Bitmap bitmap = null;
+        try {
+            startCandidate(completionService, candidates, urls[0]);
+            int pending = 1;
+            while( pending > 0 && !isCancelled() ) {
+                Future<Bitmap> completed;
+                if( candidates.size() < urls.length ) {
+                    String lastUrl = urls[candidates.size() - 1];
+                    completed = completionService.poll(imageLoader.getHedgeDelayMillis(lastUrl), TimeUnit.MILLISECONDS);
+                    if( completed == null ) {
+                        Log.d("[DownloadImageTask#loadHedged]", "Image from url '" + lastUrl + "' is slow, hedging with the next fallback image");
+                        startCandidate(completionService, candidates, urls[candidates.size()]);
+                        pending++;
+                        continue;
+                    }
+                }
+                else {
+                    completed = completionService.take();
+                }
+                pending--;
+
+                Candidate candidate = candidates.get(indexOf(candidates, completed));
+                try {
+                    bitmap = completed.get();
+                }
+                catch( ExecutionException ee ) {
+                    Log.d("[DownloadImageTask#loadHedged]", "Unable to load image from url '" + candidate.url + "', attempts to load the next fallback image");
+                }
+                if( bitmap != null ) {
+                    winner = candidate;
+                    servedTier = candidate.servedTier;
+                    break;
+                }
+                if( candidates.size() < urls.length ) {
+                    startCandidate(completionService, candidates, urls[candidates.size()]);
+                    pending++;
+                }
+            }
+        }
+        catch( InterruptedException ie ) {
+            Log.d("[DownloadImageTask#loadHedged]", "Cancelled while loading the images");
+        }
+        finally {
+            for( Candidate candidate : candidates ) {
+                if( candidate != winner ) {
+                    candidate.abandon();
+                }
             }
         }
         return bitmap;
     }
 
     /**
-     * Updates the view element with the loaded image. This part happens in the main UI thread
+     * Starts loading a candidate image on the hedge executor
+     * @param completionService the completion service of the candidates
+     * @param candidates the candidates started so far, in the order of the urls
+     * @param url the image url of the candidate
+     */
+    private void startCandidate(CompletionService<Bitmap> completionService, List<Candidate> candidates, String url) {
+        Candidate candidate = new Candidate(url);
+        candidate.future = completionService.submit(candidate);
+        candidates.add(candidate);
+    }
+
+    private static int indexOf(List<Candidate> candidates, Future<Bitmap> future) {
+        for( int i = 0; i < candidates.size(); i++ ) {
+            if( candidates.get(i).future == future ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Updates the view element with the loaded image, unless the view element has since been bound to another task.
+     * This part happens in the main UI thread
      * @param bitmap the loaded bitmap image to use for updating the view element
      * @since 1.0
      */
@@ -67,59 +490,210 @@ public class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
     protected void onPostExecute(Bitmap bitmap) {
         final View view = viewReference.get();
         if( view != null ) {
-            if( view instanceof ImageView ) {
-                ((ImageView) view).setImageBitmap(bitmap);
+            DownloadImageTask boundTask = boundTasks.get(view);
+            if( boundTask == this ) {
+                boundTasks.remove(view);
+                setBitmap(view, bitmap, isCrossfaded);
+                recordBind(bitmap);
+                return;
             }
-            else {
-                BitmapDrawable background = null;
-                if( bitmap != null ) {
-                    background = new BitmapDrawable(null, bitmap);
-                }
-                view.setBackgroundDrawable(background);
+            else if( boundTask == null && urls == null ) {
+                // Not started through load(), so not bound to the view
+                setBitmap(view, bitmap);
+                recordBind(bitmap);
+                return;
             }
         }
+        imageLoader.release(bitmap);
     }
 
     /**
-     * The actual loading of the image url
-     * @param url the image url to load the image from
-     * @return the loaded bitmap image to use for updating the view element
-     * @throws Exception if the loading fails for any reason
+     * Notes the cache tier the loaded image was served from, recorded once the image is displayed
+     * @param tier the cache tier
+     * @since 1.0
      */
-    private Bitmap getBitmapImage(String url) throws Exception {
-        Bitmap bitmap = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            urlConnection = (HttpURLConnection) new java.net.URL(url).openConnection();
-            urlConnection.setConnectTimeout(5000);
-            urlConnection.setReadTimeout(5000);
-            InputStream in = urlConnection.getInputStream();
-            try {
-                bitmap = BitmapFactory.decodeStream(in);
+    @Override
+    public void onServed(ImageStats.Tier tier) {
+        servedTier = tier;
+    }
+
+    /**
+     * Records the time the loaded image waited to be displayed, and the cache tier it was served from
+     * @param bitmap the displayed bitmap image, or null if none could be loaded
+     */
+    private void recordBind(Bitmap bitmap) {
+        ImageStats stats = ImageStats.getInstance();
+        stats.record(ImageStats.Stage.BIND, SystemClock.uptimeMillis() - loadedAt);
+        if( bitmap != null && servedTier != null ) {
+            stats.recordTier(servedTier);
+        }
+    }
+
+    /**
+     * Releases the loaded image of a cancelled task, which is never displayed.
+     * This part happens in the main UI thread
+     * @param bitmap the loaded bitmap image, or null if the loading was abandoned
+     * @since 1.0
+     */
+    @Override
+    protected void onCancelled(Bitmap bitmap) {
+        imageLoader.release(bitmap);
+    }
+
+    /**
+     * Updates the view element with the bitmap image, either as the image of an {@link android.widget.ImageView}
+     * or as the background of any other view.
+     * Takes over the reference of the loaded bitmap, and releases the bitmap previously displayed by the view element
+     * @param view the view element to update
+     * @param bitmap the referenced bitmap image to display, or null to clear the image
+     * @since 1.0
+     */
+    private static void setBitmap(View view, Bitmap bitmap) {
+        setBitmap(view, bitmap, false);
+    }
+
+    /**
+     * Updates the view element with the bitmap image, optionally crossfading from the currently displayed image
+     * @param view the view element to update
+     * @param bitmap the referenced bitmap image to display, or null to clear the image
+     * @param isCrossfaded true to crossfade from the currently displayed image, if any
+     * @since 1.0
+     */
+    private static void setBitmap(final View view, Bitmap bitmap, boolean isCrossfaded) {
+        final Bitmap displayedBitmap = bitmap != null ? displayedBitmaps.put(view, bitmap) : displayedBitmaps.remove(view);
+        final ImageLoader imageLoader = ImageLoader.getInstance(view.getContext());
+        Drawable previous = view instanceof ImageView ? ((ImageView) view).getDrawable() : view.getBackground();
+        if( isCrossfaded && bitmap != null && previous != null ) {
+            final BitmapDrawable drawable = new BitmapDrawable(null, bitmap);
+            final TransitionDrawable transition = new TransitionDrawable(new Drawable[] { previous, drawable });
+            transition.setCrossFadeEnabled(true);
+            setDrawable(view, transition);
+            transition.startTransition(CROSSFADE_MILLIS);
+            view.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    // Drops the faded out image, unless the view element has since been updated again
+                    Drawable current = view instanceof ImageView ? ((ImageView) view).getDrawable() : view.getBackground();
+                    if( current == transition ) {
+                        setDrawable(view, drawable);
+                        current = drawable;
+                    }
+                    // Still drawn by a newer crossfade starting from this one, so checked again once that one is done,
+                    // unless displayed again, holding its own reference
+                    if( displayedBitmaps.get(view) != displayedBitmap && isDrawing(current, displayedBitmap) ) {
+                        view.postDelayed(this, CROSSFADE_MILLIS);
+                        return;
+                    }
+                    imageLoader.release(displayedBitmap);
+                }
+            }, CROSSFADE_MILLIS);
+            return;
+        }
+
+        if( view instanceof ImageView ) {
+            ((ImageView) view).setImageBitmap(bitmap);
+        }
+        else {
+            BitmapDrawable background = null;
+            if( bitmap != null ) {
+                background = new BitmapDrawable(null, bitmap);
             }
-            catch (Exception e) {
-                Log.d( "[DownloadImageTask#getBitmapImage]", "Failed extracting bitmap from the url '" + url + "'");
-                throw e;
+            view.setBackgroundDrawable(background);
+        }
+        // Released only once no longer displayed, so the bitmap is never reused while still drawn
+        imageLoader.release(displayedBitmap);
+    }
+
+    /**
+     * Checks whether a drawable draws the bitmap, directly or as a layer, e.g. of a crossfade
+     * @param drawable the drawable, or null
+     * @param bitmap the bitmap image, or null
+     * @return true if the drawable draws the bitmap
+     */
+    private static boolean isDrawing(Drawable drawable, Bitmap bitmap) {
+        if( bitmap == null ) {
+            return false;
+        }
+        if( drawable instanceof BitmapDrawable ) {
+            return ((BitmapDrawable) drawable).getBitmap() == bitmap;
+        }
+        if( drawable instanceof LayerDrawable ) {
+            LayerDrawable layers = (LayerDrawable) drawable;
+            for( int i = 0; i < layers.getNumberOfLayers(); i++ ) {
+                if( isDrawing(layers.getDrawable(i), bitmap) ) {
+                    return true;
+                }
             }
-            finally {
-                in.close();
+        }
+        return false;
+    }
+
+    /**
+     * Sets the drawable as the image of an {@link android.widget.ImageView}, or as the background of any other view
+     * @param view the view element to update
+     * @param drawable the drawable to display
+     */
+    private static void setDrawable(View view, Drawable drawable) {
+        if( view instanceof ImageView ) {
+            ((ImageView) view).setImageDrawable(drawable);
+        }
+        else {
+            view.setBackgroundDrawable(drawable);
+        }
+    }
+
+    /**
+     * Internal class for loading a single candidate image of a hedged task
+     * @since 1.0
+     */
+    private class Candidate implements Callable<Bitmap>, ImageLoader.Request {
+        private final String url;
+        private Future<Bitmap> future;
+        // Set once the candidate has lost, or the task is done. Guarded by this
+        private boolean isAbandoned = false;
+        // The loaded image handed out to the task. Guarded by this
+        private Bitmap result;
+        // The cache tier the loaded image was served from
+        private volatile ImageStats.Tier servedTier;
+
+        public Candidate(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public Bitmap call() throws Exception {
+            Bitmap bitmap = imageLoader.getBitmap(url, width, height, this);
+            synchronized(this) {
+                if( !isAbandoned ) {
+                    result = bitmap;
+                    return bitmap;
+                }
             }
+            imageLoader.release(bitmap);
+            return null;
         }
-        catch( SocketTimeoutException ste ) {
-            Log.e("[DownloadImageTask#getBitmapImage]", "Timeout loading: '" + url + "'");
-            throw ste;
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return isAbandoned || DownloadImageTask.this.isCancelled();
         }
-        catch (Exception e) {
-            Log.e("[DownloadImageTask#getBitmapImage]", e.getMessage());
-            e.printStackTrace();
-            throw e;
+
+        @Override
+        public void onServed(ImageStats.Tier tier) {
+            servedTier = tier;
         }
-        finally {
-            if( urlConnection != null ) {
-                urlConnection.disconnect();
+
+        /**
+         * Cancels the candidate, and releases its image if already loaded
+         */
+        public void abandon() {
+            Bitmap loaded;
+            synchronized(this) {
+                isAbandoned = true;
+                loaded = result;
+                result = null;
             }
+            imageLoader.release(loaded);
         }
-        return bitmap;
     }
-
 }
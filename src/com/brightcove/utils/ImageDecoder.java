@@ -0,0 +1,191 @@
+package com.brightcove.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Utility class for decoding images at the size of the view element they are displayed in.
+ * <p>
+ * The image bounds are read first, and the image is then decoded with the largest power of two sample size
+ * keeping it at least as big as the requested size, and scaled down the rest of the way while decoding,
+ * so an oversized image never reaches the heap at its original size.
+ * A requested width or height of 0 leaves that dimension unconstrained.
+ * <p>
+ * Images are decoded into mutable bitmaps, reusing a bitmap from the {@link com.brightcove.utils.BitmapPool} when possible.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see android.graphics.BitmapFactory.Options#inSampleSize
+ * @see com.brightcove.utils.ImageLoader
+ * @since 1.0
+ */
+public class ImageDecoder {
+    private static final String LOG_TAG = "[ImageDecoder]";
+    // Fixed point base used to express the decode scale as a density ratio
+    private static final int SCALE_DENSITY = 10000;
+
+    /**
+     * Decodes an image file at the requested size
+     * @param file the image file
+     * @param reqWidth the requested width in pixels, or 0 if unconstrained
+     * @param reqHeight the requested height in pixels, or 0 if unconstrained
+     * @param bitmapPool the pool of bitmaps to reuse, or null to always allocate a new bitmap
+     * @return the decoded bitmap image, or null if the file could not be decoded
+     * @since 1.0
+     */
+    public static Bitmap decodeFile(final File file, int reqWidth, int reqHeight, BitmapPool bitmapPool) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+            }
+        }, reqWidth, reqHeight, bitmapPool);
+    }
+
+    /**
+     * Decodes an image byte array at the requested size
+     * @param data the encoded image bytes
+     * @param reqWidth the requested width in pixels, or 0 if unconstrained
+     * @param reqHeight the requested height in pixels, or 0 if unconstrained
+     * @param bitmapPool the pool of bitmaps to reuse, or null to always allocate a new bitmap
+     * @return the decoded bitmap image, or null if the bytes could not be decoded
+     * @since 1.0
+     */
+    public static Bitmap decodeByteArray(final byte[] data, int reqWidth, int reqHeight, BitmapPool bitmapPool) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+        }, reqWidth, reqHeight, bitmapPool);
+    }
+
+    /**
+     * Reads the image bounds, and then decodes the image at the requested size, reusing a pooled bitmap if possible
+     * @param source the encoded image
+     * @param reqWidth the requested width in pixels, or 0 if unconstrained
+     * @param reqHeight the requested height in pixels, or 0 if unconstrained
+     * @param bitmapPool the pool of bitmaps to reuse, or null to always allocate a new bitmap
+     * @return the decoded bitmap image, or null if the image could not be decoded
+     */
+    private static Bitmap decode(Source source, int reqWidth, int reqHeight, BitmapPool bitmapPool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if( !prepareOptions(options, reqWidth, reqHeight) ) {
+            return null;
+        }
+        options.inMutable = true;
+
+        Bitmap reusable = bitmapPool != null ? getReusableBitmap(options, bitmapPool) : null;
+        if( reusable != null ) {
+            options.inBitmap = reusable;
+            try {
+                Bitmap bitmap = source.decode(options);
+                if( bitmap != null ) {
+                    return toPixelDensity(bitmap);
+                }
+            }
+            catch( IllegalArgumentException iae ) {
+                Log.d(LOG_TAG, "Unable to reuse pooled bitmap: " + iae.getMessage());
+            }
+            bitmapPool.putBack(reusable);
+            options.inBitmap = null;
+        }
+        return toPixelDensity(source.decode(options));
+    }
+
+    /**
+     * Takes a pooled bitmap which can hold the image decoded with the prepared options
+     * @param options the prepared decode options
+     * @param bitmapPool the pool of bitmaps to reuse
+     * @return the bitmap to reuse, or null if none is suitable
+     */
+    private static Bitmap getReusableBitmap(BitmapFactory.Options options, BitmapPool bitmapPool) {
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        // Upper bound of the decoded size, allowing for the rounding of the sampling and scaling
+        double scale = options.inScaled ? options.inTargetDensity / (double) options.inDensity : 1;
+        int width = (int) Math.ceil(Math.ceil(options.outWidth / (double) options.inSampleSize) * scale) + 1;
+        int height = (int) Math.ceil(Math.ceil(options.outHeight / (double) options.inSampleSize) * scale) + 1;
+        return bitmapPool.get(width, height, config);
+    }
+
+    /**
+     * Calculates the largest power of two sample size which keeps the image at least as big as the requested size
+     * @param width the original image width
+     * @param height the original image height
+     * @param reqWidth the requested width in pixels, or 0 if unconstrained
+     * @param reqHeight the requested height in pixels, or 0 if unconstrained
+     * @return the sample size to decode with
+     * @since 1.0
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if( reqWidth <= 0 && reqHeight <= 0 ) {
+            return inSampleSize;
+        }
+        while( (reqWidth <= 0 || width / (inSampleSize * 2) >= reqWidth)
+                && (reqHeight <= 0 || height / (inSampleSize * 2) >= reqHeight) ) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Sets up the decode options from the image bounds, with the sample size and the remaining down scaling
+     * @param options the options holding the image bounds
+     * @param reqWidth the requested width in pixels, or 0 if unconstrained
+     * @param reqHeight the requested height in pixels, or 0 if unconstrained
+     * @return false if the image bounds could not be read
+     */
+    private static boolean prepareOptions(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        if( options.outWidth <= 0 || options.outHeight <= 0 ) {
+            return false;
+        }
+        int inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+
+        // The smallest scale keeping every constrained dimension at least as big as requested
+        int sampledWidth = options.outWidth / inSampleSize;
+        int sampledHeight = options.outHeight / inSampleSize;
+        float scale = 0;
+        if( reqWidth > 0 ) {
+            scale = Math.max(scale, reqWidth / (float) sampledWidth);
+        }
+        if( reqHeight > 0 ) {
+            scale = Math.max(scale, reqHeight / (float) sampledHeight);
+        }
+        if( scale > 0 && scale < 1 ) {
+            options.inScaled = true;
+            options.inDensity = SCALE_DENSITY;
+            options.inTargetDensity = (int) Math.ceil(scale * SCALE_DENSITY);
+        }
+        else {
+            options.inScaled = false;
+        }
+        return true;
+    }
+
+    /**
+     * Internal interface for the encoded image, which can be decoded repeatedly
+     * @since 1.0
+     */
+    private interface Source {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    /**
+     * Removes the density from the decoded bitmap, so it is drawn at exactly its decoded pixel size
+     * @param bitmap the decoded bitmap image
+     * @return the same bitmap image
+     */
+    private static Bitmap toPixelDensity(Bitmap bitmap) {
+        if( bitmap != null ) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,664 @@
+package com.brightcove.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent LRU cache of encoded image bytes, stored in the application cache directory.
+ * <p>
+ * Every change is appended to a journal file, which is replayed when the cache is opened.
+ * Entries are written to a temporary file and only become visible once the edit is committed,
+ * so an entry left half written by a crash or process death is discarded the next time the cache is opened.
+ * The journal is compacted when it has grown too large with redundant operations.
+ * <p>
+ * Each entry carries the HTTP {@link com.brightcove.utils.ImageDiskCache.Metadata} it was downloaded with,
+ * so a stale entry can be revalidated with a conditional request instead of being downloaded again.
+ * <p>
+ * Example:<br>
+ * {@code File imageFile = ImageDiskCache.getInstance(context).get(imageUrl); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.utils.DownloadImageTask
+ * @since 1.0
+ */
+public class ImageDiskCache {
+    /**
+     * Default maximum number of bytes stored on disk
+     * @since 1.0
+     */
+    public static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+
+    private static final String LOG_TAG = "[ImageDiskCache]";
+    private static final String DIRECTORY_NAME = "images";
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_MAGIC = "com.brightcove.utils.ImageDiskCache";
+    private static final String JOURNAL_VERSION = "2";
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final String TMP_SUFFIX = ".tmp";
+    // Journal placeholder for a missing metadata value
+    private static final String NO_VALUE = "-";
+    // Number of redundant journal operations before the journal is compacted
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    // Singleton static instance variable
+    private static volatile ImageDiskCache instance;
+
+    private final File directory;
+    private final File journalFile;
+    private final long maxBytes;
+    private long size = 0;
+    private int redundantOpCount = 0;
+    private Writer journalWriter;
+    // The clean entries in access order, by hashed entry key
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    // The keys of the entries currently being edited
+    private final Map<String, Editor> editors = new LinkedHashMap<String, Editor>();
+
+    /**
+     * Private constructor to construct a new ImageDiskCache instance.
+     * Only called the very first time the getInstance is invoked
+     * @param directory the directory to store the cache entries and the journal in
+     * @param maxBytes the maximum number of bytes to store
+     * @throws IOException if the directory or the journal could not be created
+     * @since 1.0
+     */
+    private ImageDiskCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        journalFile = new File(directory, JOURNAL_FILE);
+        if( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException("Unable to create the cache directory " + directory);
+        }
+        open();
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageDiskCache instance,
+     * stored in the application cache directory with a quota of {@link #DEFAULT_MAX_BYTES}
+     * @param context the context used to look up the application cache directory
+     * @return the ImageDiskCache instance, or null if the cache could not be opened
+     * @since 1.0
+     */
+    public static ImageDiskCache getInstance(Context context) {
+        if( instance == null ) {
+            synchronized(ImageDiskCache.class) {
+                if( instance == null ) {
+                    try {
+                        instance = new ImageDiskCache(new File(context.getCacheDir(), DIRECTORY_NAME), DEFAULT_MAX_BYTES);
+                    }
+                    catch( IOException ioe ) {
+                        Log.e(LOG_TAG, "Unable to open the disk cache: " + ioe.getMessage());
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the cached file for the key, and marks it as the most recently used
+     * @param key the entry key, typically the image url
+     * @return the cached file, or null if not cached
+     * @since 1.0
+     */
+    public synchronized File get(String key) {
+        String fileKey = toFileKey(key);
+        if( !entries.containsKey(fileKey) ) {
+            return null;
+        }
+        File file = getEntryFile(fileKey);
+        if( !file.exists() ) {
+            removeEntry(fileKey);
+            return null;
+        }
+        appendJournal(READ, fileKey);
+        return file;
+    }
+
+    /**
+     * Gets the HTTP metadata of the cached entry for the key, without marking it as used
+     * @param key the entry key, typically the image url
+     * @return the entry metadata, or null if not cached
+     * @since 1.0
+     */
+    public synchronized Metadata getMetadata(String key) {
+        Entry entry = entries.get(toFileKey(key));
+        return entry != null ? entry.metadata : null;
+    }
+
+    /**
+     * Replaces the HTTP metadata of the cached entry for the key, e.g. when revalidated as not modified
+     * @param key the entry key, typically the image url
+     * @param metadata the new entry metadata
+     * @return true if the entry is cached and was updated
+     * @since 1.0
+     */
+    public synchronized boolean setMetadata(String key, Metadata metadata) {
+        String fileKey = toFileKey(key);
+        Entry entry = entries.get(fileKey);
+        if( entry == null || editors.containsKey(fileKey) ) {
+            return false;
+        }
+        entry.metadata = metadata != null ? metadata : Metadata.NONE;
+        // Supersedes the previous CLEAN line of the entry
+        redundantOpCount++;
+        appendJournal(CLEAN, toJournalArguments(fileKey, entry));
+        compactJournalIfNeeded();
+        return true;
+    }
+
+    /**
+     * Starts an edit of the entry for the key. Only one edit per key can be active at any time
+     * @param key the entry key, typically the image url
+     * @return the editor to write the entry with, or null if the entry is already being edited
+     * @since 1.0
+     */
+    public synchronized Editor edit(String key) {
+        String fileKey = toFileKey(key);
+        if( editors.containsKey(fileKey) ) {
+            return null;
+        }
+        Editor editor = new Editor(fileKey);
+        editors.put(fileKey, editor);
+        appendJournal(DIRTY, fileKey);
+        return editor;
+    }
+
+    /**
+     * Removes the entry for the key
+     * @param key the entry key, typically the image url
+     * @since 1.0
+     */
+    public synchronized void remove(String key) {
+        removeEntry(toFileKey(key));
+    }
+
+    /**
+     * Gets the number of bytes currently stored
+     * @return the current cache size in bytes
+     * @since 1.0
+     */
+    public synchronized long getSizeBytes() { return size; }
+
+    /**
+     * Gets the maximum number of bytes to store
+     * @return the maximum cache size in bytes
+     * @since 1.0
+     */
+    public long getMaxBytes() { return maxBytes; }
+
+    /**
+     * Completes an edit, making the entry visible if successful, and evicts entries if the quota is exceeded.
+     * An entry larger than the whole quota is discarded rather than published, as it would be evicted straight away
+     * @param editor the editor of the completed edit
+     * @param success true to publish the written entry, false to discard it
+     * @return true if the written entry was published
+     */
+    private synchronized boolean completeEdit(Editor editor, boolean success) {
+        String fileKey = editor.fileKey;
+        editors.remove(fileKey);
+        File tmpFile = editor.getTmpFile();
+        File file = getEntryFile(fileKey);
+        boolean isPublished = false;
+        if( success && tmpFile.exists() && tmpFile.length() <= maxBytes ) {
+            Entry oldEntry = entries.remove(fileKey);
+            if( oldEntry != null ) {
+                size -= oldEntry.length;
+            }
+            if( tmpFile.renameTo(file) ) {
+                Entry entry = new Entry(file.length(), editor.metadata);
+                entries.put(fileKey, entry);
+                size += entry.length;
+                appendJournal(CLEAN, toJournalArguments(fileKey, entry));
+                isPublished = true;
+            }
+            else {
+                file.delete();
+                appendJournal(REMOVE, fileKey);
+            }
+        }
+        else {
+            tmpFile.delete();
+            Entry entry = entries.get(fileKey);
+            if( entry != null ) {
+                // The entry is kept, so its CLEAN line supersedes the DIRTY line of the edit
+                appendJournal(CLEAN, toJournalArguments(fileKey, entry));
+            }
+            else {
+                appendJournal(REMOVE, fileKey);
+            }
+        }
+        trimToSize();
+        compactJournalIfNeeded();
+        return isPublished;
+    }
+
+    /**
+     * Removes the entry and its file
+     * @param fileKey the hashed entry key
+     */
+    private void removeEntry(String fileKey) {
+        Entry entry = entries.remove(fileKey);
+        if( entry != null ) {
+            size -= entry.length;
+            getEntryFile(fileKey).delete();
+            appendJournal(REMOVE, fileKey);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache size is within the quota
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while( size > maxBytes && iterator.hasNext() ) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue().length;
+            getEntryFile(entry.getKey()).delete();
+            appendJournal(REMOVE, entry.getKey());
+        }
+    }
+
+    /**
+     * Opens the cache by replaying the journal, or creates a new journal if missing or unreadable
+     * @throws IOException if a new journal could not be created
+     */
+    private void open() throws IOException {
+        if( journalFile.exists() ) {
+            try {
+                readJournal();
+                journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "US-ASCII"));
+                return;
+            }
+            catch( IOException ioe ) {
+                Log.w(LOG_TAG, "Discarding corrupt journal: " + ioe.getMessage());
+            }
+        }
+        for( File file : listFiles() ) {
+            file.delete();
+        }
+        entries.clear();
+        size = 0;
+        rebuildJournal();
+    }
+
+    /**
+     * Replays the journal, and deletes any entry file left dirty or unreferenced
+     * @throws IOException if the journal is unreadable or has an unexpected header
+     */
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "US-ASCII"));
+        ArrayList<String> dirty = new ArrayList<String>();
+        int lineCount = 0;
+        try {
+            if( !JOURNAL_MAGIC.equals(reader.readLine()) || !JOURNAL_VERSION.equals(reader.readLine()) ) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while( (line = reader.readLine()) != null ) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if( parts.length < 2 ) {
+                    // A partially written last line after a crash
+                    continue;
+                }
+                String fileKey = parts[1];
+                if( CLEAN.equals(parts[0]) && parts.length == 6 ) {
+                    dirty.remove(fileKey);
+                    Metadata metadata = new Metadata(fromJournalValue(parts[4]), fromJournalValue(parts[5]), Long.parseLong(parts[3]));
+                    entries.put(fileKey, new Entry(Long.parseLong(parts[2]), metadata));
+                }
+                else if( DIRTY.equals(parts[0]) ) {
+                    dirty.add(fileKey);
+                }
+                else if( REMOVE.equals(parts[0]) ) {
+                    dirty.remove(fileKey);
+                    entries.remove(fileKey);
+                }
+                else if( READ.equals(parts[0]) ) {
+                    entries.get(fileKey);
+                }
+            }
+        }
+        catch( NumberFormatException nfe ) {
+            throw new IOException("Corrupt journal line: " + nfe.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+
+        for( String fileKey : dirty ) {
+            if( entries.remove(fileKey) != null ) {
+                getEntryFile(fileKey).delete();
+            }
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while( iterator.hasNext() ) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            File file = getEntryFile(entry.getKey());
+            if( !file.exists() || file.length() != entry.getValue().length ) {
+                file.delete();
+                iterator.remove();
+            }
+            else {
+                size += entry.getValue().length;
+            }
+        }
+        for( File file : listFiles() ) {
+            if( !entries.containsKey(file.getName()) ) {
+                file.delete();
+            }
+        }
+        redundantOpCount = lineCount - entries.size();
+    }
+
+    /**
+     * Writes a new compact journal holding only the current clean entries, replacing the existing journal
+     * @throws IOException if the journal could not be written
+     */
+    private void rebuildJournal() throws IOException {
+        if( journalWriter != null ) {
+            journalWriter.close();
+        }
+        File tmpJournalFile = new File(directory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpJournalFile), "US-ASCII"));
+        try {
+            writer.write(JOURNAL_MAGIC + "\n");
+            writer.write(JOURNAL_VERSION + "\n");
+            for( Map.Entry<String, Entry> entry : entries.entrySet() ) {
+                writer.write(CLEAN + " " + toJournalArguments(entry.getKey(), entry.getValue()) + "\n");
+            }
+            for( String fileKey : editors.keySet() ) {
+                writer.write(DIRTY + " " + fileKey + "\n");
+            }
+        }
+        finally {
+            writer.close();
+        }
+        if( !tmpJournalFile.renameTo(journalFile) ) {
+            throw new IOException("Unable to replace the journal");
+        }
+        redundantOpCount = 0;
+        journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), "US-ASCII"));
+    }
+
+    /**
+     * Compacts the journal once the redundant operations outnumber the entries
+     */
+    private void compactJournalIfNeeded() {
+        if( redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size() ) {
+            try {
+                rebuildJournal();
+            }
+            catch( IOException ioe ) {
+                Log.e(LOG_TAG, "Unable to compact the journal: " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Appends an operation to the journal, and flushes it to disk
+     * @param operation the journal operation
+     * @param arguments the hashed entry key, followed by any operation arguments
+     */
+    private void appendJournal(String operation, String arguments) {
+        if( !CLEAN.equals(operation) ) {
+            redundantOpCount++;
+        }
+        try {
+            journalWriter.write(operation + " " + arguments + "\n");
+            journalWriter.flush();
+        }
+        catch( IOException ioe ) {
+            Log.e(LOG_TAG, "Unable to write to the journal: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Lists the entry files in the cache directory, excluding the journal files
+     * @return the entry and temporary files
+     */
+    private ArrayList<File> listFiles() {
+        ArrayList<File> files = new ArrayList<File>();
+        File[] allFiles = directory.listFiles();
+        if( allFiles != null ) {
+            for( File file : allFiles ) {
+                String name = file.getName();
+                if( !name.equals(JOURNAL_FILE) && !name.equals(JOURNAL_FILE_TMP) ) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Formats the arguments of the CLEAN journal line of an entry
+     * @param fileKey the hashed entry key
+     * @param entry the entry
+     * @return the hashed entry key, the length, the expiry time, the ETag and the Last-Modified date
+     */
+    private static String toJournalArguments(String fileKey, Entry entry) {
+        Metadata metadata = entry.metadata;
+        return fileKey + " " + entry.length + " " + metadata.getExpires()
+                + " " + toJournalValue(metadata.getETag()) + " " + toJournalValue(metadata.getLastModified());
+    }
+
+    /**
+     * Encodes a metadata value to be space free for the journal
+     * @param value the metadata value, or null if missing
+     * @return the encoded value
+     */
+    private static String toJournalValue(String value) {
+        if( value == null ) {
+            return NO_VALUE;
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch( UnsupportedEncodingException uee ) {
+            return NO_VALUE;
+        }
+    }
+
+    /**
+     * Decodes a metadata value from the journal
+     * @param value the encoded value
+     * @return the metadata value, or null if missing
+     */
+    private static String fromJournalValue(String value) {
+        if( NO_VALUE.equals(value) ) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch( UnsupportedEncodingException uee ) {
+            return null;
+        }
+    }
+
+    private File getEntryFile(String fileKey) {
+        return new File(directory, fileKey);
+    }
+
+    /**
+     * Hashes the entry key into a file name safe key
+     * @param key the entry key, typically the image url
+     * @return the MD5 hex string of the key
+     */
+    private static String toFileKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            String hex = new BigInteger(1, hash).toString(16);
+            while( hex.length() < 32 ) {
+                hex = "0" + hex;
+            }
+            return hex;
+        }
+        catch( NoSuchAlgorithmException nsae ) {
+            return String.valueOf(key.hashCode());
+        }
+        catch( UnsupportedEncodingException uee ) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    /**
+     * HTTP metadata of a cache entry, holding the validators for revalidating the entry and its freshness lifetime
+     * @since 1.0
+     */
+    public static class Metadata {
+        /**
+         * The metadata of an entry without validators, which never goes stale
+         * @since 1.0
+         */
+        public static final Metadata NONE = new Metadata(null, null, Long.MAX_VALUE);
+
+        private final String eTag;
+        private final String lastModified;
+        private final long expires;
+
+        /**
+         * Constructs new entry metadata
+         * @param eTag the ETag response header, or null if missing
+         * @param lastModified the Last-Modified response header, or null if missing
+         * @param expires the time in milliseconds since the epoch the entry goes stale at
+         * @since 1.0
+         */
+        public Metadata(String eTag, String lastModified, long expires) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * Gets the ETag validator, sent as If-None-Match when revalidating
+         * @return the ETag, or null if missing
+         * @since 1.0
+         */
+        public String getETag() { return eTag; }
+
+        /**
+         * Gets the Last-Modified validator, sent as If-Modified-Since when revalidating
+         * @return the Last-Modified date, or null if missing
+         * @since 1.0
+         */
+        public String getLastModified() { return lastModified; }
+
+        /**
+         * Gets the time the entry goes stale at
+         * @return the expiry time in milliseconds since the epoch
+         * @since 1.0
+         */
+        public long getExpires() { return expires; }
+
+        /**
+         * Checks whether the entry can still be used without revalidating it
+         * @return true if the entry has not expired yet
+         * @since 1.0
+         */
+        public boolean isFresh() { return System.currentTimeMillis() < expires; }
+
+        /**
+         * Checks whether the entry can be revalidated with a conditional request
+         * @return true if the entry has an ETag or a Last-Modified date
+         * @since 1.0
+         */
+        public boolean hasValidators() { return eTag != null || lastModified != null; }
+    }
+
+    /**
+     * Internal class for a clean cache entry
+     * @since 1.0
+     */
+    private static class Entry {
+        private final long length;
+        private Metadata metadata;
+
+        public Entry(long length, Metadata metadata) {
+            this.length = length;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Writes the bytes of a single cache entry. Every edit must end with either {@link #commit()} or {@link #abort()}
+     * @since 1.0
+     */
+    public class Editor {
+        private final String fileKey;
+        private boolean isCompleted = false;
+        private Metadata metadata = Metadata.NONE;
+
+        private Editor(String fileKey) {
+            this.fileKey = fileKey;
+        }
+
+        private File getTmpFile() {
+            return new File(directory, fileKey + TMP_SUFFIX);
+        }
+
+        /**
+         * Opens a new output stream for writing the entry bytes
+         * @return the output stream, which must be closed before committing
+         * @throws IOException if the temporary entry file could not be created
+         * @since 1.0
+         */
+        public OutputStream newOutputStream() throws IOException {
+            return new BufferedOutputStream(new FileOutputStream(getTmpFile()));
+        }
+
+        /**
+         * Sets the HTTP metadata stored with the entry when committed
+         * @param metadata the entry metadata, or null for none
+         * @since 1.0
+         */
+        public void setMetadata(Metadata metadata) {
+            this.metadata = metadata != null ? metadata : Metadata.NONE;
+        }
+
+        /**
+         * Publishes the written entry
+         * @throws IOException if the entry could not be published, e.g. as it is larger than the whole cache,
+         *                     in which case it is discarded
+         * @since 1.0
+         */
+        public void commit() throws IOException {
+            if( !isCompleted ) {
+                isCompleted = true;
+                if( !completeEdit(this, true) ) {
+                    throw new IOException("Unable to publish the cache entry " + fileKey);
+                }
+            }
+        }
+
+        /**
+         * Discards the written entry
+         * @since 1.0
+         */
+        public void abort() {
+            if( !isCompleted ) {
+                isCompleted = true;
+                completeEdit(this, false);
+            }
+        }
+    }
+}
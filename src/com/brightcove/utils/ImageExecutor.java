@@ -0,0 +1,292 @@
+package com.brightcove.utils;
+
+import android.os.AsyncTask;
+import android.os.Process;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton executor dedicated to image loading, used by {@link com.brightcove.utils.DownloadImageTask}
+ * instead of the serial AsyncTask executor, so a slow image never delays other images or any other AsyncTask.
+ * <p>
+ * Tasks are run by a bounded number of background priority threads, which yield to the main UI thread
+ * and to the default priority threads loading the video for playback.
+ * Pending tasks are run by their {@link com.brightcove.utils.ImageExecutor.Priority}, and within the same priority
+ * the most recently submitted task first, so the images scrolled into view during a fling are loaded before the ones
+ * already scrolled past. When more tasks are pending than the executor holds, the task which would run last is trimmed,
+ * i.e. dropped and cancelled: an AsyncTask through {@link android.os.AsyncTask#cancel(boolean)}, so it completes
+ * with onCancelled instead of onPostExecute, and a {@link com.brightcove.utils.ImageExecutor.Trimmable} task through its callback.
+ * <p>
+ * The candidate images of a hedged task are run by a separate {@link #getHedgeExecutor() hedge executor},
+ * so a task waiting for its candidates never holds up the threads its candidates need.
+ * <p>
+ * Example:<br>
+ * {@code task.executeOnExecutor(ImageExecutor.getInstance().forTask(task, ImageExecutor.Priority.VISIBLE), imageUrl); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.utils.DownloadImageTask
+ * @since 1.0
+ */
+public class ImageExecutor {
+    /**
+     * The maximum number of pending tasks used when no explicit limit is set
+     * @since 1.0
+     */
+    public static final int DEFAULT_MAX_PENDING = 64;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The priority classes of the image tasks, in the order they are run
+     * @since 1.0
+     */
+    public enum Priority {
+        /**
+         * An image displayed by a view element currently on screen
+         */
+        VISIBLE,
+        /**
+         * An image loaded ahead of being scrolled into view
+         */
+        PREFETCH,
+        /**
+         * A large decorative image, e.g. a background poster
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Interface for the tasks told when they are trimmed from the pending tasks, and will never be run.
+     * Called on the thread submitting the task which caused the trim
+     * @since 1.0
+     */
+    public interface Trimmable {
+        /**
+         * Called when the task is trimmed from the pending tasks
+         */
+        void onTrimmed();
+    }
+
+    // Singleton static instance variable
+    private static volatile ImageExecutor instance;
+
+    private final int maxPending;
+    // The pending tasks, ordered by priority and recency
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>();
+    private final ThreadPoolExecutor executor;
+    // The executor running the candidate images of hedged tasks
+    private final ThreadPoolExecutor hedgeExecutor;
+    // The submission order of the tasks
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Private constructor to construct a new ImageExecutor instance.
+     * Only called the very first time the getInstance is invoked
+     * @param parallelism the number of images loaded in parallel
+     * @param maxPending the maximum number of pending tasks
+     * @since 1.0
+     */
+    private ImageExecutor(int parallelism, int maxPending) {
+        this.maxPending = maxPending;
+        executor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ImageThreadFactory("ImageExecutor #"));
+        executor.allowCoreThreadTimeOut(true);
+        hedgeExecutor = new ThreadPoolExecutor(parallelism * 2, parallelism * 2, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ImageThreadFactory("ImageExecutor hedge #"));
+        hedgeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageExecutor instance,
+     * using a parallelism based on the number of processors
+     * @return the ImageExecutor instance
+     * @since 1.0
+     */
+    public static ImageExecutor getInstance() {
+        if( instance == null ) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            return getInstance(Math.max(2, Math.min(processors, 4)), DEFAULT_MAX_PENDING);
+        }
+        return instance;
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageExecutor instance with an explicit configuration.
+     * The configuration is only used if the instance has not already been created.
+     * @param parallelism the number of images loaded in parallel
+     * @param maxPending the maximum number of pending tasks
+     * @return the ImageExecutor instance
+     * @since 1.0
+     */
+    public static ImageExecutor getInstance(int parallelism, int maxPending) {
+        if( instance == null ) {
+            synchronized(ImageExecutor.class) {
+                if( instance == null ) {
+                    instance = new ImageExecutor(parallelism, maxPending);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets an executor running an AsyncTask with the given priority, for {@link android.os.AsyncTask#executeOnExecutor},
+     * which cancels the AsyncTask if it is trimmed from the pending tasks
+     * @param task the AsyncTask to run
+     * @param priority the priority of the task
+     * @return the executor for the task
+     * @since 1.0
+     */
+    public Executor forTask(final AsyncTask<?, ?, ?> task, final Priority priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                ImageExecutor.this.execute(new AsyncTaskRunnable(task, runnable), priority);
+            }
+        };
+    }
+
+    /**
+     * Gets the executor for the candidate images a hedged task is waiting for, separate from the prioritized tasks
+     * @return the hedge executor
+     * @see com.brightcove.utils.DownloadImageTask.Fallback#HEDGED
+     * @since 1.0
+     */
+    public Executor getHedgeExecutor() {
+        return hedgeExecutor;
+    }
+
+    /**
+     * Submits a task with the given priority, and trims the pending task which would run last
+     * if the maximum number of pending tasks is exceeded
+     * @param runnable the task to run, told when trimmed if it is {@link com.brightcove.utils.ImageExecutor.Trimmable}
+     * @param priority the priority of the task
+     * @since 1.0
+     */
+    public void execute(Runnable runnable, Priority priority) {
+        executor.execute(new PrioritizedTask(runnable, priority, sequence.incrementAndGet()));
+        trim();
+    }
+
+    /**
+     * Gets the number of pending tasks, not yet run
+     * @return the pending task count
+     * @since 1.0
+     */
+    public int getPendingCount() { return queue.size(); }
+
+    /**
+     * Trims the pending tasks which would run last until at most the maximum number of tasks are pending
+     */
+    private synchronized void trim() {
+        while( queue.size() > maxPending ) {
+            PrioritizedTask last = null;
+            Iterator<Runnable> iterator = queue.iterator();
+            while( iterator.hasNext() ) {
+                PrioritizedTask task = (PrioritizedTask) iterator.next();
+                if( last == null || task.compareTo(last) > 0 ) {
+                    last = task;
+                }
+            }
+            if( last == null || !queue.remove(last) ) {
+                return;
+            }
+            if( last.runnable instanceof Trimmable ) {
+                ((Trimmable) last.runnable).onTrimmed();
+            }
+            else if( last.runnable instanceof Future ) {
+                ((Future<?>) last.runnable).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Internal class running the work of an AsyncTask, and cancelling the AsyncTask itself when trimmed,
+     * as cancelling only its work would still complete it with onPostExecute
+     * @since 1.0
+     */
+    private static class AsyncTaskRunnable implements Runnable, Trimmable {
+        private final AsyncTask<?, ?, ?> task;
+        private final Runnable runnable;
+
+        public AsyncTaskRunnable(AsyncTask<?, ?, ?> task, Runnable runnable) {
+            this.task = task;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public void onTrimmed() {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Internal class wrapping a task with its priority and submission order
+     * @since 1.0
+     */
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable runnable;
+        private final Priority priority;
+        private final long sequence;
+
+        public PrioritizedTask(Runnable runnable, Priority priority, long sequence) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        /**
+         * Orders the tasks by priority, and the most recently submitted first within the same priority
+         */
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if( priority != other.priority ) {
+                return priority.ordinal() - other.priority.ordinal();
+            }
+            return sequence > other.sequence ? -1 : (sequence < other.sequence ? 1 : 0);
+        }
+    }
+
+    /**
+     * Internal ThreadFactory class creating named background priority threads
+     * @since 1.0
+     */
+    private static class ImageThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public ImageThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, namePrefix + count.incrementAndGet());
+            return thread;
+        }
+    }
+}
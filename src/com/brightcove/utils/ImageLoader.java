@@ -0,0 +1,870 @@
+package com.brightcove.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton class that loads and decodes images, used by {@link com.brightcove.utils.DownloadImageTask}.
+ * <p>
+ * Images are looked up in the {@link com.brightcove.utils.ImageMemoryCache}, then in the {@link com.brightcove.utils.ImageDiskCache},
+ * and only downloaded if not cached. Images are decoded at the requested size by the {@link com.brightcove.utils.ImageDecoder},
+ * reusing the bitmaps of the {@link com.brightcove.utils.BitmapPool}.
+ * <p>
+ * Every bitmap returned by the loader holds a reference in the bitmap pool, which must be released with
+ * {@link #release(android.graphics.Bitmap)} once the bitmap is no longer displayed.
+ * <p>
+ * Loads in progress are tracked at two levels: downloads by their url, and decodes by their url and size.
+ * A request for an image which is already being loaded attaches to that load instead of downloading or decoding its own copy.
+ * A load is abandoned as soon as every {@link com.brightcove.utils.ImageLoader.Request} attached to it has been cancelled.
+ * <p>
+ * Downloads keep their connection alive to be reused by the next download from the same host.
+ * Cached images are stored with their ETag and Last-Modified validators, and once stale are revalidated with
+ * a conditional request, which only costs a round trip when the server responds 304 Not Modified.
+ * A stale image is still used if it cannot be revalidated. An image whose response forbids storing it, with
+ * {@code Cache-Control: no-store}, is decoded from memory, and never written to, nor kept in, the disk cache.
+ * <p>
+ * The duration of each stage of the loads and the byte counts are recorded in the {@link com.brightcove.utils.ImageStats}.
+ * The cache tier each image is served from is passed to its {@link com.brightcove.utils.ImageLoader.Request},
+ * so only the images actually displayed are counted.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.utils.DownloadImageTask
+ * @since 1.0
+ */
+public class ImageLoader {
+    private static final String LOG_TAG = "[ImageLoader]";
+    // The freshness lifetime of a cached image when the response sets none
+    private static final long DEFAULT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int TIMEOUT_MILLIS = 5000;
+    // The longest a request waits for the load in progress it attached to
+    private static final long MAX_AWAIT_MILLIS = 30000;
+    // The bounds of the hedge delay before starting a fallback image
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 500;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 100;
+    private static final long MAX_HEDGE_DELAY_MILLIS = 2000;
+
+    // Singleton static instance variable
+    private static volatile ImageLoader instance;
+    // The in-memory bitmap cache
+    private final ImageMemoryCache memoryCache;
+    // The persistent image cache, null if unavailable
+    private final ImageDiskCache diskCache;
+    // The pool of bitmaps to reuse when decoding
+    private final BitmapPool bitmapPool;
+    // The downloads in progress, by url
+    private final Map<String, InFlightLoad<DownloadedImage>> inFlightDownloads = new HashMap<String, InFlightLoad<DownloadedImage>>();
+    // The decodes in progress, by memory cache key
+    private final Map<String, InFlightLoad<Bitmap>> inFlightDecodes = new HashMap<String, InFlightLoad<Bitmap>>();
+    // The instrumentation of the loads
+    private final ImageStats stats = ImageStats.getInstance();
+    // The observed load latency, up to the decoded image, of the image hosts
+    private final LatencyTracker latencyTracker =
+            new LatencyTracker(DEFAULT_HEDGE_DELAY_MILLIS, MIN_HEDGE_DELAY_MILLIS, MAX_HEDGE_DELAY_MILLIS);
+
+    /**
+     * Private constructor to construct a new ImageLoader instance.
+     * Only called the very first time the getInstance is invoked
+     * @param context the context used to set up the memory and disk caches
+     * @since 1.0
+     */
+    private ImageLoader(Context context) {
+        memoryCache = ImageMemoryCache.getInstance(context);
+        diskCache = ImageDiskCache.getInstance(context);
+        bitmapPool = BitmapPool.getInstance(context);
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageLoader instance
+     * @param context the context used to set up the memory and disk caches
+     * @return the ImageLoader instance
+     * @since 1.0
+     */
+    public static ImageLoader getInstance(Context context) {
+        if( instance == null ) {
+            synchronized(ImageLoader.class) {
+                if( instance == null ) {
+                    instance = new ImageLoader(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the image from the memory cache only. Safe to call from the main UI thread
+     * @param url the image url
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @return the referenced cached bitmap image, or null if not in the memory cache
+     * @see #release(android.graphics.Bitmap)
+     * @since 1.0
+     */
+    public Bitmap getCachedBitmap(String url, int width, int height) {
+        return memoryCache.acquire(ImageMemoryCache.getKey(url, width, height));
+    }
+
+    /**
+     * Gets the largest image of the url from the memory cache, at whichever size it was requested,
+     * e.g. as a placeholder while the image is loaded at a larger size. Safe to call from the main UI thread
+     * @param url the image url
+     * @return the referenced cached bitmap image, or null if not in the memory cache at any size
+     * @see #release(android.graphics.Bitmap)
+     * @since 1.0
+     */
+    public Bitmap getCachedBitmapAnySize(String url) {
+        return memoryCache.acquireAnySize(url);
+    }
+
+    /**
+     * Releases the reference of a bitmap returned by the loader, once it is no longer displayed,
+     * so it can be reused when no longer referenced by the memory cache either
+     * @param bitmap the bitmap no longer in use, ignored if null
+     * @since 1.0
+     */
+    public void release(Bitmap bitmap) {
+        bitmapPool.release(bitmap);
+    }
+
+    /**
+     * Gets the image from the caches, or by downloading it, decoded at the requested size.
+     * If the image is already being loaded by another thread, waits for and returns the result of that load.
+     * Blocks the calling thread, so must not be called from the main UI thread
+     * @param url the image url
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param request the request the image is loaded for, which is polled for cancellation. Null if never cancelled
+     * @return the referenced loaded bitmap image, or null if the image could not be decoded
+     * @throws Exception if the loading fails for any reason, or InterruptedIOException if abandoned by all its requests
+     * @see #release(android.graphics.Bitmap)
+     * @since 1.0
+     */
+    public Bitmap getBitmap(final String url, final int width, final int height, Request request) throws Exception {
+        final String key = ImageMemoryCache.getKey(url, width, height);
+        Bitmap bitmap = memoryCache.acquire(key);
+        if( bitmap != null ) {
+            serve(request, ImageStats.Tier.MEMORY);
+            return bitmap;
+        }
+        return load(inFlightDecodes, key, request, new Loader<Bitmap>() {
+            @Override
+            public Bitmap load(InFlightLoad<Bitmap> decode) throws Exception {
+                Bitmap bitmap = memoryCache.acquire(key);
+                if( bitmap != null ) {
+                    decode.onServed(ImageStats.Tier.MEMORY);
+                }
+                else {
+                    bitmap = loadBitmap(url, width, height, decode);
+                    bitmapPool.retain(bitmap);
+                    memoryCache.put(key, bitmap);
+                }
+                return bitmap;
+            }
+
+            @Override
+            public void share(Bitmap bitmap, int count) {
+                bitmapPool.retain(bitmap, count);
+            }
+        });
+    }
+
+    /**
+     * Gets how long to wait for the image before hedging with a fallback image, adapted to the observed latency of its host
+     * @param url the image url
+     * @return the hedge delay in milliseconds
+     * @see com.brightcove.utils.LatencyTracker#getHedgeDelay(String)
+     * @since 1.0
+     */
+    public long getHedgeDelayMillis(String url) {
+        return latencyTracker.getHedgeDelay(getHost(url));
+    }
+
+    /**
+     * Downloads the image into the disk cache without decoding it, unless already cached and fresh.
+     * Blocks the calling thread, so must not be called from the main UI thread
+     * @param url the image url
+     * @param request the request the image is downloaded for, which is polled for cancellation. Null if never cancelled
+     * @return true if the image is in the disk cache
+     * @throws Exception if the download fails for any reason, or InterruptedIOException if abandoned by all its requests
+     * @since 1.0
+     */
+    public boolean prefetch(String url, Request request) throws Exception {
+        if( diskCache == null ) {
+            return false;
+        }
+        DownloadedImage image = downloadToCache(url, request);
+        return image != null && image.file != null;
+    }
+
+    /**
+     * Runs the loader for the key, or attaches the request to the load already in progress for the key
+     * @param inFlightLoads the loads in progress
+     * @param key the key of the load
+     * @param request the request the load is for
+     * @param loader the actual loading, only run if no load is already in progress
+     * @return the result of the load
+     * @throws Exception if the loading fails for any reason, or InterruptedIOException if abandoned by all its requests
+     */
+    private <T> T load(Map<String, InFlightLoad<T>> inFlightLoads, String key, Request request, Loader<T> loader) throws Exception {
+        InFlightLoad<T> load;
+        boolean isOwner = false;
+        synchronized(inFlightLoads) {
+            load = inFlightLoads.get(key);
+            if( load == null ) {
+                load = new InFlightLoad<T>();
+                inFlightLoads.put(key, load);
+                isOwner = true;
+            }
+            load.attach(request);
+        }
+
+        if( !isOwner ) {
+            boolean isInterrupted = false;
+            boolean isDone;
+            try {
+                isDone = load.await();
+            }
+            catch( InterruptedException ie ) {
+                isInterrupted = true;
+                isDone = false;
+            }
+            if( !isDone ) {
+                synchronized(inFlightLoads) {
+                    // Unless completed meanwhile, the result is not shared with this request anymore
+                    if( !load.isDone() ) {
+                        load.detach(request);
+                        if( isInterrupted ) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted waiting for the load in progress");
+                        }
+                        throw new IOException("Timed out waiting for the load in progress");
+                    }
+                }
+                if( isInterrupted ) {
+                    // Completed while leaving, so the shared result is still handed to the request, to be released
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                T result = load.getResult();
+                serve(request, load.getTier());
+                return result;
+            }
+            catch( InterruptedIOException iioe ) {
+                if( request != null && request.isCancelled() ) {
+                    throw iioe;
+                }
+                // Abandoned by the requests attached before this one, so start a new load
+                return load(inFlightLoads, key, request, loader);
+            }
+        }
+
+        boolean isCompleted = false;
+        try {
+            T result = loader.load(load);
+            synchronized(inFlightLoads) {
+                remove(inFlightLoads, key, load);
+                // Shared and published at once, so a request leaving the load either detaches before being counted,
+                // or gets the result it was counted for
+                loader.share(result, load.getRequestCount() - 1);
+                load.complete(result, null);
+            }
+            isCompleted = true;
+            serve(request, load.getTier());
+            return result;
+        }
+        catch( Exception e ) {
+            synchronized(inFlightLoads) {
+                remove(inFlightLoads, key, load);
+                load.complete(null, e);
+            }
+            isCompleted = true;
+            throw e;
+        }
+        finally {
+            if( !isCompleted ) {
+                // Failed with an Error, e.g. an OutOfMemoryError, which must not leave the attached requests waiting
+                synchronized(inFlightLoads) {
+                    remove(inFlightLoads, key, load);
+                    load.complete(null, new IOException("Load failed for " + key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells a request which cache tier its image was served from
+     * @param request the request, or null
+     * @param tier the cache tier, or null if unknown
+     */
+    private static void serve(Request request, ImageStats.Tier tier) {
+        if( request != null && tier != null ) {
+            request.onServed(tier);
+        }
+    }
+
+    /**
+     * Removes a load from the loads in progress, unless already replaced by a newer load for the same key
+     * @param inFlightLoads the loads in progress
+     * @param key the key of the load
+     * @param load the load to remove
+     */
+    private static <T> void remove(Map<String, InFlightLoad<T>> inFlightLoads, String key, InFlightLoad<T> load) {
+        if( inFlightLoads.get(key) == load ) {
+            inFlightLoads.remove(key);
+        }
+    }
+
+    /**
+     * The actual loading of the image url, from the disk cache if available, otherwise from the network
+     * @param url the image url to load the image from
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @param decode the decode in progress, which is polled for being abandoned
+     * @return the loaded bitmap image
+     * @throws Exception if the loading fails for any reason
+     */
+    private Bitmap loadBitmap(String url, int width, int height, InFlightLoad<Bitmap> decode) throws Exception {
+        if( diskCache == null ) {
+            long loadStart = SystemClock.uptimeMillis();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            download(url, out, decode);
+            decode.onServed(ImageStats.Tier.NETWORK);
+            long start = SystemClock.uptimeMillis();
+            return recordLoadLatency(url, recordDecode(ImageDecoder.decodeByteArray(out.toByteArray(), width, height, bitmapPool), start), loadStart);
+        }
+
+        ImageDiskCache.Metadata metadata = diskCache.getMetadata(url);
+        File cachedFile = metadata != null && metadata.isFresh() ? diskCache.get(url) : null;
+        if( cachedFile != null ) {
+            long start = SystemClock.uptimeMillis();
+            Bitmap bitmap = recordDecode(ImageDecoder.decodeFile(cachedFile, width, height, bitmapPool), start);
+            if( bitmap != null ) {
+                decode.onServed(ImageStats.Tier.DISK);
+                return bitmap;
+            }
+            Log.d(LOG_TAG, "Discarding undecodable cache entry for '" + url + "'");
+            diskCache.remove(url);
+        }
+
+        checkAbandoned(decode);
+        long loadStart = SystemClock.uptimeMillis();
+        DownloadedImage image = downloadToCache(url, decode);
+        if( image == null ) {
+            return null;
+        }
+        long start = SystemClock.uptimeMillis();
+        Bitmap bitmap = image.file != null
+                ? ImageDecoder.decodeFile(image.file, width, height, bitmapPool)
+                : ImageDecoder.decodeByteArray(image.bytes, width, height, bitmapPool);
+        return recordLoadLatency(url, recordDecode(bitmap, start), loadStart);
+    }
+
+    /**
+     * Records the latency of a load from the network, up to the decoded image, as the hedged tasks wait for the
+     * decoded image rather than only the response. Only loaded images are recorded, so a host timing out or
+     * serving undecodable images does not push its hedge delay up
+     * @param url the loaded image url
+     * @param bitmap the decoded bitmap image, or null if the loading failed
+     * @param start the uptime in milliseconds the load started at
+     * @return the same bitmap image
+     */
+    private Bitmap recordLoadLatency(String url, Bitmap bitmap, long start) {
+        if( bitmap != null ) {
+            latencyTracker.record(getHost(url), SystemClock.uptimeMillis() - start);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Records the duration of a decode and the decoded bytes
+     * @param bitmap the decoded bitmap image, or null if the decoding failed
+     * @param start the uptime in milliseconds the decode started at
+     * @return the same bitmap image
+     */
+    private Bitmap recordDecode(Bitmap bitmap, long start) {
+        stats.record(ImageStats.Stage.DECODE, SystemClock.uptimeMillis() - start);
+        if( bitmap != null ) {
+            stats.addDecodedBytes(bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Downloads the image into the disk cache, or attaches to the download already in progress for the url.
+     * A stale cached image is revalidated instead, and kept if not modified, or if the revalidation fails or gets an error response.
+     * An image which must not be stored is downloaded into memory instead, and replaces any cached image
+     * @param url the image url to download
+     * @param decode the decode the download is for
+     * @return the downloaded image, or null if it could not be cached
+     * @throws Exception if the download fails for any reason
+     */
+    private DownloadedImage downloadToCache(final String url, Request decode) throws Exception {
+        return load(inFlightDownloads, url, decode, new Loader<DownloadedImage>() {
+            @Override
+            public DownloadedImage load(InFlightLoad<DownloadedImage> download) throws Exception {
+                File cachedFile = diskCache.get(url);
+                ImageDiskCache.Metadata cached = cachedFile != null ? diskCache.getMetadata(url) : null;
+                if( cached != null && cached.isFresh() ) {
+                    download.onServed(ImageStats.Tier.DISK);
+                    return new DownloadedImage(cachedFile, null);
+                }
+
+                HttpURLConnection connection;
+                int responseCode;
+                try {
+                    connection = connect(url, cached);
+                    responseCode = connection.getResponseCode();
+                }
+                catch( IOException ioe ) {
+                    if( cached != null ) {
+                        Log.d(LOG_TAG, "Unable to revalidate, using the stale image for '" + url + "'");
+                        download.onServed(ImageStats.Tier.DISK);
+                        return new DownloadedImage(cachedFile, null);
+                    }
+                    Log.e(LOG_TAG, "Failed connecting for the url '" + url + "': " + ioe.getMessage());
+                    throw ioe;
+                }
+
+                if( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null ) {
+                    readBody(url, connection, null, download);
+                    diskCache.setMetadata(url, getMetadata(connection, cached));
+                    download.onServed(ImageStats.Tier.REVALIDATED);
+                    return new DownloadedImage(cachedFile, null);
+                }
+                if( responseCode != HttpURLConnection.HTTP_OK && cached != null ) {
+                    Log.d(LOG_TAG, "Unable to revalidate (HTTP " + responseCode + "), using the stale image for '" + url + "'");
+                    connection.disconnect();
+                    download.onServed(ImageStats.Tier.DISK);
+                    return new DownloadedImage(cachedFile, null);
+                }
+                if( isNoStore(connection) ) {
+                    // Neither written to the disk cache, nor kept there as a stale fallback
+                    if( cached != null ) {
+                        diskCache.remove(url);
+                    }
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    readBody(url, connection, out, download);
+                    download.onServed(ImageStats.Tier.NETWORK);
+                    return new DownloadedImage(null, out.toByteArray());
+                }
+                ImageDiskCache.Editor editor = diskCache.edit(url);
+                if( editor == null ) {
+                    connection.disconnect();
+                    return null;
+                }
+                boolean isWritten = false;
+                try {
+                    OutputStream out = editor.newOutputStream();
+                    try {
+                        readBody(url, connection, out, download);
+                    }
+                    finally {
+                        out.close();
+                    }
+                    editor.setMetadata(getMetadata(connection, null));
+                    isWritten = true;
+                    download.onServed(ImageStats.Tier.NETWORK);
+                }
+                finally {
+                    if( isWritten ) {
+                        editor.commit();
+                    }
+                    else {
+                        editor.abort();
+                    }
+                }
+                File downloadedFile = diskCache.get(url);
+                if( downloadedFile == null ) {
+                    // Evicted by other entries before it could be read
+                    throw new IOException("Downloaded image evicted from the cache for '" + url + "'");
+                }
+                return new DownloadedImage(downloadedFile, null);
+            }
+        });
+    }
+
+    /**
+     * Downloads the image bytes from the url
+     * @param url the image url to download
+     * @param out the stream to write the image bytes to
+     * @param load the load in progress, which is polled for being abandoned between each read
+     * @throws Exception if the download fails for any reason, or InterruptedIOException if abandoned
+     */
+    private void download(String url, OutputStream out, InFlightLoad<?> load) throws Exception {
+        HttpURLConnection connection;
+        try {
+            connection = connect(url, null);
+        }
+        catch( IOException ioe ) {
+            Log.e(LOG_TAG, "Failed connecting for the url '" + url + "': " + ioe.getMessage());
+            throw ioe;
+        }
+        readBody(url, connection, out, load);
+    }
+
+    /**
+     * Requests the image url, as a conditional request if the validators of a cached image are given
+     * @param url the image url to request
+     * @param validators the metadata of the cached image to revalidate, or null for an unconditional request
+     * @return the connection, with the response headers received
+     * @throws IOException if the request failed
+     */
+    private HttpURLConnection connect(String url, ImageDiskCache.Metadata validators) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new java.net.URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if( validators != null ) {
+            if( validators.getETag() != null ) {
+                connection.setRequestProperty("If-None-Match", validators.getETag());
+            }
+            if( validators.getLastModified() != null ) {
+                connection.setRequestProperty("If-Modified-Since", validators.getLastModified());
+            }
+        }
+        long start = SystemClock.uptimeMillis();
+        connection.connect();
+        long connected = SystemClock.uptimeMillis();
+        connection.getResponseCode();
+        long responded = SystemClock.uptimeMillis();
+        stats.record(ImageStats.Stage.CONNECT, connected - start);
+        stats.record(ImageStats.Stage.FIRST_BYTE, responded - connected);
+        return connection;
+    }
+
+    /**
+     * Gets the host of the url
+     * @param url the url
+     * @return the host name, or null if the url is malformed
+     */
+    private static String getHost(String url) {
+        try {
+            return new java.net.URL(url).getHost();
+        }
+        catch( java.net.MalformedURLException mue ) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole response body, so the connection is returned to the pool to be reused for the next request to the host.
+     * The connection is only disconnected if the body could not be read to the end
+     * @param url the requested image url
+     * @param connection the connection to read the response from
+     * @param out the stream to write the body to, or null to discard it
+     * @param load the load in progress, which is polled for being abandoned between each read
+     * @throws IOException if the request failed or returned an error status, or InterruptedIOException if abandoned
+     */
+    private void readBody(String url, HttpURLConnection connection, OutputStream out, InFlightLoad<?> load) throws IOException {
+        boolean isDrained = false;
+        InputStream in = null;
+        long start = SystemClock.uptimeMillis();
+        long bytes = 0;
+        try {
+            int responseCode = connection.getResponseCode();
+            boolean isError = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST;
+            in = isError ? connection.getErrorStream() : connection.getInputStream();
+            if( in != null ) {
+                byte[] buffer = new byte[8192];
+                int count;
+                while( (count = in.read(buffer)) != -1 ) {
+                    bytes += count;
+                    checkAbandoned(load);
+                    if( out != null && !isError ) {
+                        out.write(buffer, 0, count);
+                    }
+                }
+            }
+            isDrained = true;
+            stats.record(ImageStats.Stage.DOWNLOAD, SystemClock.uptimeMillis() - start);
+            if( isError ) {
+                throw new IOException("HTTP " + responseCode + " for the url '" + url + "'");
+            }
+        }
+        catch( SocketTimeoutException ste ) {
+            Log.e(LOG_TAG, "Timeout loading: '" + url + "'");
+            throw ste;
+        }
+        catch( InterruptedIOException iioe ) {
+            Log.d(LOG_TAG, "Abandoned loading: '" + url + "'");
+            throw iioe;
+        }
+        catch( IOException ioe ) {
+            Log.d(LOG_TAG, "Failed downloading the image from the url '" + url + "': " + ioe.getMessage());
+            throw ioe;
+        }
+        finally {
+            stats.addDownloadedBytes(bytes);
+            if( in != null ) {
+                try {
+                    in.close();
+                }
+                catch( IOException ioe ) {
+                    isDrained = false;
+                }
+            }
+            if( !isDrained ) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Builds the cache metadata from the response headers
+     * @param connection the connection holding the response
+     * @param cached the metadata of the revalidated cached image, whose validators are kept unless replaced, or null
+     * @return the metadata to store with the cached image
+     */
+    private static ImageDiskCache.Metadata getMetadata(HttpURLConnection connection, ImageDiskCache.Metadata cached) {
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if( cached != null ) {
+            eTag = eTag != null ? eTag : cached.getETag();
+            lastModified = lastModified != null ? lastModified : cached.getLastModified();
+        }
+
+        long now = System.currentTimeMillis();
+        long expires = now + DEFAULT_MAX_AGE_MILLIS;
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        long maxAge = -1;
+        boolean isNoCache = false;
+        if( cacheControl != null ) {
+            for( String directive : cacheControl.split(",") ) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if( directive.equals("no-cache") || directive.equals("no-store") ) {
+                    isNoCache = true;
+                }
+                else if( directive.startsWith("max-age=") ) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring("max-age=".length()));
+                    }
+                    catch( NumberFormatException nfe ) {
+                        Log.d(LOG_TAG, "Ignoring invalid Cache-Control: " + cacheControl);
+                    }
+                }
+            }
+        }
+        if( isNoCache ) {
+            expires = now;
+        }
+        else if( maxAge >= 0 ) {
+            expires = now + maxAge * 1000;
+        }
+        else if( connection.getExpiration() > 0 ) {
+            expires = connection.getExpiration();
+        }
+        return new ImageDiskCache.Metadata(eTag, lastModified, expires);
+    }
+
+    /**
+     * Checks whether the response forbids storing the image, with {@code Cache-Control: no-store}
+     * @param connection the connection holding the response
+     * @return true if the image must not be stored
+     */
+    private static boolean isNoStore(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if( cacheControl != null ) {
+            for( String directive : cacheControl.split(",") ) {
+                if( directive.trim().toLowerCase(Locale.US).equals("no-store") ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the load early once all its requests have been cancelled
+     * @param load the load in progress
+     * @throws InterruptedIOException if the load has been abandoned
+     */
+    private void checkAbandoned(InFlightLoad<?> load) throws InterruptedIOException {
+        if( load.isCancelled() ) {
+            throw new InterruptedIOException("Image load abandoned");
+        }
+    }
+
+    /**
+     * Interface for the requests an image is loaded for, e.g. the {@link com.brightcove.utils.DownloadImageTask} bound to a view
+     * @since 1.0
+     */
+    public interface Request {
+        /**
+         * Gets the cancellation state of the request
+         * @return true if the result of the request is no longer wanted
+         * @since 1.0
+         */
+        boolean isCancelled();
+
+        /**
+         * Called with the cache tier the image was served from, before the image is returned for the request
+         * @param tier the cache tier
+         * @since 1.0
+         */
+        void onServed(ImageStats.Tier tier);
+    }
+
+    /**
+     * Internal class for the actual loading run by the owner of a load
+     * @since 1.0
+     */
+    private static abstract class Loader<T> {
+        /**
+         * Loads the result
+         * @param load the load in progress, which is polled for being abandoned
+         * @return the loaded result
+         * @throws Exception if the loading fails for any reason
+         */
+        public abstract T load(InFlightLoad<T> load) throws Exception;
+
+        /**
+         * Called before the result is handed to the requests which attached to the load while in progress
+         * @param result the loaded result
+         * @param count the number of requests still attached, excluding the owner of the load
+         */
+        public void share(T result, int count) {
+        }
+    }
+
+    /**
+     * Internal class holding a downloaded image, either cached on disk, or held in memory if it must not be stored
+     * @since 1.0
+     */
+    private static class DownloadedImage {
+        // The cached image file, or null if held in memory
+        private final File file;
+        // The image bytes, or null if cached
+        private final byte[] bytes;
+
+        public DownloadedImage(File file, byte[] bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Internal class holding the shared result of a load in progress.
+     * A load is itself a request to the loads it depends on, and is cancelled once abandoned by all its requests
+     * @since 1.0
+     */
+    private static class InFlightLoad<T> implements Request {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Request> requests = new ArrayList<Request>();
+        private T result;
+        private Exception error;
+        // The cache tier the result was served from
+        private volatile ImageStats.Tier tier;
+
+        /**
+         * Attaches a request to the load. Null requests are never cancelled, so keep the load alive
+         * @param request the request waiting for the load
+         */
+        public synchronized void attach(Request request) {
+            requests.add(request);
+        }
+
+        /**
+         * Detaches a request which stopped waiting for the load, so the result is not shared with it
+         * @param request the request leaving the load
+         */
+        public synchronized void detach(Request request) {
+            requests.remove(request);
+        }
+
+        /**
+         * Gets the number of requests attached to the load, including its owner
+         * @return the number of attached requests
+         */
+        public synchronized int getRequestCount() {
+            return requests.size();
+        }
+
+        /**
+         * Checks whether all the requests attached to the load have been cancelled
+         * @return true if nobody wants the result of the load anymore
+         */
+        @Override
+        public synchronized boolean isCancelled() {
+            for( Request request : requests ) {
+                if( request == null || !request.isCancelled() ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Notes the cache tier the result of the load was served from, passed on to the requests of the load
+         * @param tier the cache tier
+         */
+        @Override
+        public void onServed(ImageStats.Tier tier) {
+            this.tier = tier;
+        }
+
+        /**
+         * Gets the cache tier the result of the load was served from
+         * @return the cache tier, or null if unknown
+         */
+        public ImageStats.Tier getTier() {
+            return tier;
+        }
+
+        /**
+         * Publishes the result of the load, and releases all the waiting threads
+         * @param result the loaded result
+         * @param error the failure, or null if successful
+         */
+        public void complete(T result, Exception error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        /**
+         * Waits for the load to complete, at most {@link #MAX_AWAIT_MILLIS}
+         * @return true if the load completed, or false if it did not complete in time
+         * @throws InterruptedException if the waiting thread was interrupted
+         */
+        public boolean await() throws InterruptedException {
+            return done.await(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Checks whether the load has completed
+         * @return true if the result, or the failure, of the load is published
+         */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Gets the result of the completed load
+         * @return the loaded result
+         * @throws Exception the failure of the load
+         */
+        public T getResult() throws Exception {
+            if( error != null ) {
+                throw error;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.brightcove.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process wide in-memory LRU cache of decoded bitmaps, keyed by image url plus the requested size.
+ * The cache is limited by the total byte count of the cached bitmaps rather than by the number of entries.
+ * Cached bitmaps hold a reference in the {@link com.brightcove.utils.BitmapPool}, released when evicted.
+ * <p>
+ * Example:<br>
+ * {@code Bitmap bitmap = ImageMemoryCache.getInstance(context).get(ImageMemoryCache.getKey(imageUrl, width, height)); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see android.util.LruCache
+ * @see com.brightcove.utils.DownloadImageTask
+ * @since 1.0
+ */
+public class ImageMemoryCache {
+    /**
+     * The part of the application memory class (heap limit) used for the cache when no explicit budget is set
+     * @since 1.0
+     */
+    public static final int DEFAULT_MEMORY_DIVISOR = 8;
+
+    // Singleton static instance variable
+    private static volatile ImageMemoryCache instance;
+    // The underlying byte counting LRU cache
+    private final BitmapLruCache cache;
+    // The pool receiving the bitmaps no longer referenced once evicted
+    private final BitmapPool bitmapPool;
+
+    /**
+     * Private constructor to construct a new ImageMemoryCache instance.
+     * Only called the very first time the getInstance is invoked
+     * @param maxBytes the maximum number of bitmap bytes to keep in the cache
+     * @param bitmapPool the pool receiving the evicted bitmaps once no longer referenced
+     * @since 1.0
+     */
+    private ImageMemoryCache(int maxBytes, BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+        cache = new BitmapLruCache(maxBytes);
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageMemoryCache instance,
+     * using a byte budget of 1/{@link #DEFAULT_MEMORY_DIVISOR} of the application memory class
+     * @param context the context used to look up the memory class of the device
+     * @return the ImageMemoryCache instance
+     * @see android.app.ActivityManager#getMemoryClass()
+     * @since 1.0
+     */
+    public static ImageMemoryCache getInstance(Context context) {
+        if( instance == null ) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+            return getInstance(memoryClassBytes / DEFAULT_MEMORY_DIVISOR, BitmapPool.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageMemoryCache instance with an explicit byte budget.
+     * The budget is only used if the instance has not already been created.
+     * @param maxBytes the maximum number of bitmap bytes to keep in the cache
+     * @param bitmapPool the pool receiving the evicted bitmaps once no longer referenced
+     * @return the ImageMemoryCache instance
+     * @since 1.0
+     */
+    public static ImageMemoryCache getInstance(int maxBytes, BitmapPool bitmapPool) {
+        if( instance == null ) {
+            synchronized(ImageMemoryCache.class) {
+                if( instance == null ) {
+                    instance = new ImageMemoryCache(maxBytes, bitmapPool);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Builds the cache key for an image url and the requested size
+     * @param url the image url
+     * @param width the requested width in pixels, or 0 for the original size
+     * @param height the requested height in pixels, or 0 for the original size
+     * @return the cache key
+     * @since 1.0
+     */
+    public static String getKey(String url, int width, int height) {
+        return url + "#" + width + "x" + height;
+    }
+
+    /**
+     * Gets the cached bitmap for the key, and marks it as the most recently used
+     * @param key the cache key
+     * @return the cached bitmap, or null if not cached
+     * @see #getKey(String, int, int)
+     * @since 1.0
+     */
+    public Bitmap get(String key) {
+        if( key == null ) {
+            return null;
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * Gets a copy of the cached bitmaps by key, in least to most recently used order, without marking any of them
+     * as used nor counting any hit or miss, e.g. to measure the cached images. Copies the whole cache,
+     * so only meant for occasional lookups
+     * @return the cached bitmaps, by cache key
+     * @see #getKey(String, int, int)
+     * @since 1.0
+     */
+    public Map<String, Bitmap> snapshot() {
+        return cache.snapshot();
+    }
+
+    /**
+     * Gets the cached bitmap for the key, marks it as the most recently used, and adds a reference to it
+     * in the {@link com.brightcove.utils.BitmapPool}, which the caller must release when no longer in use.
+     * The lookup and the reference are atomic, so the bitmap cannot be evicted into the pool in between
+     * @param key the cache key
+     * @return the referenced cached bitmap, or null if not cached
+     * @see com.brightcove.utils.BitmapPool#release(android.graphics.Bitmap)
+     * @since 1.0
+     */
+    public Bitmap acquire(String key) {
+        if( key == null ) {
+            return null;
+        }
+        synchronized(bitmapPool) {
+            Bitmap bitmap = cache.get(key);
+            bitmapPool.retain(bitmap);
+            return bitmap;
+        }
+    }
+
+    /**
+     * Gets the largest cached bitmap of the image url at any requested size, e.g. as a placeholder while loading the image
+     * at another size, and adds a reference to it in the {@link com.brightcove.utils.BitmapPool}, which the caller must release.
+     * Scans the whole cache, so only meant for occasional lookups
+     * @param url the image url
+     * @return the referenced cached bitmap, or null if the image is not cached at any size
+     * @see #acquire(String)
+     * @since 1.0
+     */
+    public Bitmap acquireAnySize(String url) {
+        if( url == null ) {
+            return null;
+        }
+        // The prefix of the keys of the url at every size, see getKey
+        String keyPrefix = url + "#";
+        synchronized(bitmapPool) {
+            String largestKey = null;
+            int largestByteCount = -1;
+            for( Map.Entry<String, Bitmap> entry : cache.snapshot().entrySet() ) {
+                if( entry.getKey().startsWith(keyPrefix) && entry.getValue().getByteCount() > largestByteCount ) {
+                    largestKey = entry.getKey();
+                    largestByteCount = entry.getValue().getByteCount();
+                }
+            }
+            return largestKey != null ? acquire(largestKey) : null;
+        }
+    }
+
+    /**
+     * Adds a bitmap to the cache, evicting the least recently used bitmaps if the byte budget is exceeded
+     * @param key the cache key
+     * @param bitmap the bitmap to cache
+     * @see #getKey(String, int, int)
+     * @since 1.0
+     */
+    public void put(String key, Bitmap bitmap) {
+        if( key != null && bitmap != null ) {
+            bitmapPool.retain(bitmap);
+            cache.put(key, bitmap);
+        }
+    }
+
+    /**
+     * Removes a bitmap from the cache
+     * @param key the cache key
+     * @since 1.0
+     */
+    public void remove(String key) {
+        if( key != null ) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Evicts all the bitmaps from the cache, e.g. when the system is running low on memory
+     * @since 1.0
+     */
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * Gets the number of bitmap bytes currently held by the cache
+     * @return the current cache size in bytes
+     * @since 1.0
+     */
+    public int getSizeBytes() { return cache.size(); }
+
+    /**
+     * Gets the byte budget of the cache
+     * @return the maximum cache size in bytes
+     * @since 1.0
+     */
+    public int getMaxBytes() { return cache.maxSize(); }
+
+    /**
+     * Gets the number of lookups that returned a cached bitmap
+     * @return the hit count
+     * @since 1.0
+     */
+    public int getHitCount() { return cache.hitCount(); }
+
+    /**
+     * Gets the number of lookups that did not find a cached bitmap
+     * @return the miss count
+     * @since 1.0
+     */
+    public int getMissCount() { return cache.missCount(); }
+
+    /**
+     * Gets the number of bitmaps evicted to stay within the byte budget
+     * @return the eviction count
+     * @since 1.0
+     */
+    public int getEvictionCount() { return cache.evictionCount(); }
+
+    /**
+     * Internal LruCache class measuring the entries by their bitmap byte count,
+     * and releasing the reference of the bitmaps removed from the cache
+     * @since 1.0
+     */
+    private class BitmapLruCache extends LruCache<String, Bitmap> {
+        public BitmapLruCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            bitmapPool.release(oldValue);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.brightcove.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.AbsListView;
+import android.widget.GridView;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Scroll listener warming the image caches for the items about to be scrolled into view of a list or grid,
+ * so their images are already cached when the adapter binds them.
+ * <p>
+ * The images of the next rows in the scroll direction are loaded with the
+ * {@link com.brightcove.utils.ImageExecutor.Priority#PREFETCH} priority, behind the images of the visible items.
+ * Prefetching is paused while flinging faster than the prefetch could keep up with, and resumed when the scrolling settles.
+ * <p>
+ * Decoded prefetched images are limited to a byte budget, and to the space in the {@link com.brightcove.utils.ImageMemoryCache}
+ * left by the images of the visible items, so prefetching does not crowd out what is on screen.
+ * The images beyond the budget are only downloaded into the {@link com.brightcove.utils.ImageDiskCache}.
+ * <p>
+ * Example:<br>
+ * {@code gridView.setOnScrollListener(new ImagePrefetcher(context, adapter)); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.utils.ImagePrefetcher.Provider
+ * @since 1.0
+ */
+public class ImagePrefetcher implements AbsListView.OnScrollListener {
+    private static final String LOG_TAG = "[ImagePrefetcher]";
+
+    /**
+     * The number of rows prefetched ahead of the visible items when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_ROWS_AHEAD = 3;
+    /**
+     * The fling speed, in items per second, above which prefetching is paused when not set explicitly
+     * @since 1.0
+     */
+    public static final int DEFAULT_MAX_ITEMS_PER_SECOND = 20;
+    /**
+     * The part of the memory cache budget used for decoded prefetched images when no explicit budget is set
+     * @since 1.0
+     */
+    public static final int DEFAULT_MEMORY_DIVISOR = 4;
+
+    /**
+     * Interface for the adapter providing the image of each item
+     * @since 1.0
+     */
+    public interface Provider {
+        /**
+         * Gets the image url of the item at the position
+         * @param position the item position
+         * @return the image url, or null if the item has no image
+         * @since 1.0
+         */
+        String getImageUrl(int position);
+
+        /**
+         * Gets the width the item images are decoded at when bound
+         * @return the requested width in pixels, or 0 if unconstrained
+         * @since 1.0
+         */
+        int getImageWidth();
+
+        /**
+         * Gets the height the item images are decoded at when bound
+         * @return the requested height in pixels, or 0 if unconstrained
+         * @since 1.0
+         */
+        int getImageHeight();
+    }
+
+    private final ImageLoader imageLoader;
+    private final ImageMemoryCache memoryCache;
+    private final Provider provider;
+    private final int rowsAhead;
+    private final int maxItemsPerSecond;
+    // The maximum number of bytes of decoded prefetched images
+    private final int maxBytes;
+
+    // The scroll state, only accessed from the main UI thread
+    private int scrollState = SCROLL_STATE_IDLE;
+    private int firstVisibleItem = -1;
+    private int visibleItemCount = 0;
+    private int totalItemCount = 0;
+    private int numColumns = 1;
+    private int direction = 1;
+    private float itemsPerSecond = 0;
+    private long lastScrollTime = 0;
+    // The prefetches started for the current prefetch range, by item position
+    private final Map<Integer, PrefetchTask> tasks = new HashMap<Integer, PrefetchTask>();
+
+    /**
+     * Constructs a new ImagePrefetcher with the default configuration
+     * @param context the context used to get the image loader
+     * @param provider the adapter providing the item images
+     * @since 1.0
+     */
+    public ImagePrefetcher(Context context, Provider provider) {
+        this(context, provider, DEFAULT_ROWS_AHEAD, DEFAULT_MAX_ITEMS_PER_SECOND,
+                ImageMemoryCache.getInstance(context).getMaxBytes() / DEFAULT_MEMORY_DIVISOR);
+    }
+
+    /**
+     * Constructs a new ImagePrefetcher with an explicit configuration
+     * @param context the context used to get the image loader
+     * @param provider the adapter providing the item images
+     * @param rowsAhead the number of rows prefetched ahead of the visible items
+     * @param maxItemsPerSecond the fling speed, in items per second, above which prefetching is paused
+     * @param maxBytes the maximum number of bytes of decoded prefetched images
+     * @since 1.0
+     */
+    public ImagePrefetcher(Context context, Provider provider, int rowsAhead, int maxItemsPerSecond, int maxBytes) {
+        this.imageLoader = ImageLoader.getInstance(context);
+        this.memoryCache = ImageMemoryCache.getInstance(context);
+        this.provider = provider;
+        this.rowsAhead = rowsAhead;
+        this.maxItemsPerSecond = maxItemsPerSecond;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Pauses prefetching during fast flings, and resumes it once the scrolling settles
+     * @param view the scrolled list or grid
+     * @param scrollState the new scroll state
+     * @since 1.0
+     */
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        this.scrollState = scrollState;
+        if( scrollState == SCROLL_STATE_IDLE ) {
+            itemsPerSecond = 0;
+        }
+        update();
+    }
+
+    /**
+     * Tracks the scroll direction and speed, and prefetches the images ahead of the visible items
+     * @param view the scrolled list or grid
+     * @param firstVisibleItem the position of the first visible item
+     * @param visibleItemCount the number of visible items
+     * @param totalItemCount the number of items
+     * @since 1.0
+     */
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if( firstVisibleItem == this.firstVisibleItem && visibleItemCount == this.visibleItemCount
+                && totalItemCount == this.totalItemCount ) {
+            // Scrolled within the same items, so the prefetch range is unchanged
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if( this.firstVisibleItem >= 0 && firstVisibleItem != this.firstVisibleItem ) {
+            int distance = firstVisibleItem - this.firstVisibleItem;
+            direction = distance > 0 ? 1 : -1;
+            long elapsed = now - lastScrollTime;
+            itemsPerSecond = elapsed > 0 ? Math.abs(distance) * 1000f / elapsed : Float.MAX_VALUE;
+            lastScrollTime = now;
+        }
+        else if( this.firstVisibleItem < 0 ) {
+            lastScrollTime = now;
+        }
+        this.firstVisibleItem = firstVisibleItem;
+        this.visibleItemCount = visibleItemCount;
+        this.totalItemCount = totalItemCount;
+        if( view instanceof GridView ) {
+            numColumns = Math.max(1, ((GridView) view).getNumColumns());
+        }
+        update();
+    }
+
+    /**
+     * Cancels all the prefetches in progress, e.g. when the adapter data changes
+     * @since 1.0
+     */
+    public void cancel() {
+        for( PrefetchTask task : tasks.values() ) {
+            task.cancel();
+        }
+        tasks.clear();
+    }
+
+    /**
+     * Pauses or resumes prefetching according to the scroll state, and updates the prefetch range
+     */
+    private void update() {
+        if( scrollState == SCROLL_STATE_FLING && itemsPerSecond > maxItemsPerSecond ) {
+            cancel();
+            return;
+        }
+        if( firstVisibleItem < 0 || visibleItemCount <= 0 ) {
+            return;
+        }
+
+        int count = rowsAhead * numColumns;
+        int from, to;
+        if( direction > 0 ) {
+            from = firstVisibleItem + visibleItemCount;
+            to = Math.min(totalItemCount, from + count);
+        }
+        else {
+            to = firstVisibleItem;
+            from = Math.max(0, to - count);
+        }
+
+        Iterator<Map.Entry<Integer, PrefetchTask>> iterator = tasks.entrySet().iterator();
+        while( iterator.hasNext() ) {
+            Map.Entry<Integer, PrefetchTask> entry = iterator.next();
+            if( entry.getKey() < from || entry.getKey() >= to ) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        int width = provider.getImageWidth();
+        int height = provider.getImageHeight();
+        int[] visible = getVisibleBytes(width, height);
+        int decodeBudget = Math.min(maxBytes, memoryCache.getMaxBytes() - visible[0]);
+        int estimatedBytes = visible[1] > 0 ? visible[0] / visible[1] : Integer.MAX_VALUE;
+
+        // Submitted farthest first, as the executor runs the most recently submitted prefetch first
+        int positions = to - from;
+        for( int i = positions - 1; i >= 0; i-- ) {
+            int position = direction > 0 ? from + i : to - 1 - i;
+            if( tasks.containsKey(position) ) {
+                continue;
+            }
+            String url = provider.getImageUrl(position);
+            if( url == null ) {
+                continue;
+            }
+            // The nearest items get the decode budget, the rest is only downloaded
+            boolean isDecoded = estimatedBytes != Integer.MAX_VALUE && (long) (i + 1) * estimatedBytes <= decodeBudget;
+            PrefetchTask task = new PrefetchTask(position, url, width, height, isDecoded);
+            tasks.put(position, task);
+            ImageExecutor.getInstance().execute(task, ImageExecutor.Priority.PREFETCH);
+        }
+    }
+
+    /**
+     * Measures the cached images of the visible items, without marking them as used, so the scrolling does not
+     * skew the memory cache statistics nor its eviction order
+     * @param width the requested width in pixels, or 0 if unconstrained
+     * @param height the requested height in pixels, or 0 if unconstrained
+     * @return the byte count of the cached visible images, and the number of cached visible images
+     */
+    private int[] getVisibleBytes(int width, int height) {
+        int bytes = 0;
+        int count = 0;
+        int last = Math.min(totalItemCount, firstVisibleItem + visibleItemCount);
+        Map<String, Bitmap> cached = memoryCache.snapshot();
+        for( int position = firstVisibleItem; position < last; position++ ) {
+            String url = provider.getImageUrl(position);
+            Bitmap bitmap = url != null ? cached.get(ImageMemoryCache.getKey(url, width, height)) : null;
+            if( bitmap != null ) {
+                bytes += bitmap.getByteCount();
+                count++;
+            }
+        }
+        return new int[] { bytes, count };
+    }
+
+    /**
+     * Internal class for prefetching a single image on the {@link com.brightcove.utils.ImageExecutor}
+     * @since 1.0
+     */
+    private class PrefetchTask implements Runnable, ImageLoader.Request, ImageExecutor.Trimmable {
+        private final int position;
+        private final String url;
+        private final int width;
+        private final int height;
+        private final boolean isDecoded;
+        private volatile boolean isCancelled = false;
+
+        public PrefetchTask(int position, String url, int width, int height, boolean isDecoded) {
+            this.position = position;
+            this.url = url;
+            this.width = width;
+            this.height = height;
+            this.isDecoded = isDecoded;
+        }
+
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        /**
+         * Ignores the cache tier, as the prefetched images are not displayed yet
+         * @param tier the cache tier
+         */
+        @Override
+        public void onServed(ImageStats.Tier tier) {
+        }
+
+        /**
+         * Forgets the trimmed prefetch, so it is submitted again if its item is still in the prefetch range
+         */
+        @Override
+        public void onTrimmed() {
+            cancel();
+            if( tasks.get(position) == this ) {
+                tasks.remove(position);
+            }
+        }
+
+        @Override
+        public void run() {
+            if( isCancelled ) {
+                return;
+            }
+            try {
+                if( isDecoded ) {
+                    // Only warms the memory cache, so the reference is not kept
+                    imageLoader.release(imageLoader.getBitmap(url, width, height, this));
+                }
+                else {
+                    imageLoader.prefetch(url, this);
+                }
+            }
+            catch( Exception e ) {
+                Log.d(LOG_TAG, "Unable to prefetch image from url '" + url + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.brightcove.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide instrumentation of the image pipeline, used by the {@link com.brightcove.utils.ImageLoader}
+ * and the {@link com.brightcove.utils.DownloadImageTask}.
+ * <p>
+ * The duration of every {@link com.brightcove.utils.ImageStats.Stage} of a load is recorded into a histogram
+ * with power of two millisecond buckets, together with the downloaded and decoded byte counts
+ * and the cache {@link com.brightcove.utils.ImageStats.Tier} each displayed image was served from.
+ * Recording only increments atomic counters, so it is cheap enough to stay enabled.
+ * <p>
+ * Example:<br>
+ * {@code ImageStats.getInstance().dump(new File(context.getExternalFilesDir(null), "image-stats.txt")); }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @since 1.0
+ */
+public class ImageStats {
+    // Number of histogram buckets. Bucket i counts durations below 2^i milliseconds, the last bucket everything longer
+    private static final int BUCKET_COUNT = 17;
+
+    /**
+     * The stages of an image load
+     * @since 1.0
+     */
+    public enum Stage {
+        /**
+         * Waiting on the image executor before the load starts
+         */
+        QUEUE,
+        /**
+         * Resolving the host and connecting, or reusing a kept alive connection
+         */
+        CONNECT,
+        /**
+         * Waiting for the response headers once connected
+         */
+        FIRST_BYTE,
+        /**
+         * Reading the response body
+         */
+        DOWNLOAD,
+        /**
+         * Decoding the image into a bitmap
+         */
+        DECODE,
+        /**
+         * Waiting for the main UI thread to display the loaded image
+         */
+        BIND
+    }
+
+    /**
+     * The cache tiers an image is served from
+     * @since 1.0
+     */
+    public enum Tier {
+        /**
+         * The in-memory bitmap cache
+         */
+        MEMORY,
+        /**
+         * The persistent disk cache, without contacting the server
+         */
+        DISK,
+        /**
+         * The disk cache, after a conditional request answered with 304 Not Modified
+         */
+        REVALIDATED,
+        /**
+         * A full download
+         */
+        NETWORK
+    }
+
+    // Singleton static instance variable
+    private static volatile ImageStats instance;
+
+    private final Map<Stage, Histogram> histograms = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Map<Tier, AtomicLong> tierCounts = new EnumMap<Tier, AtomicLong>(Tier.class);
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Private constructor to construct a new ImageStats instance.
+     * Only called the very first time the getInstance is invoked
+     * @since 1.0
+     */
+    private ImageStats() {
+        for( Stage stage : Stage.values() ) {
+            histograms.put(stage, new Histogram());
+        }
+        for( Tier tier : Tier.values() ) {
+            tierCounts.put(tier, new AtomicLong());
+        }
+    }
+
+    /**
+     * Static method to get or instantiate the singleton ImageStats instance
+     * @return the ImageStats instance
+     * @since 1.0
+     */
+    public static ImageStats getInstance() {
+        if( instance == null ) {
+            synchronized(ImageStats.class) {
+                if( instance == null ) {
+                    instance = new ImageStats();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Records the duration of a stage
+     * @param stage the stage
+     * @param millis the duration in milliseconds
+     * @since 1.0
+     */
+    public void record(Stage stage, long millis) {
+        histograms.get(stage).record(millis);
+    }
+
+    /**
+     * Records the cache tier an image was served from
+     * @param tier the cache tier
+     * @since 1.0
+     */
+    public void recordTier(Tier tier) {
+        tierCounts.get(tier).incrementAndGet();
+    }
+
+    /**
+     * Adds to the number of bytes downloaded
+     * @param bytes the downloaded byte count
+     * @since 1.0
+     */
+    public void addDownloadedBytes(long bytes) {
+        downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Adds to the number of bitmap bytes decoded
+     * @param bytes the decoded bitmap byte count
+     * @since 1.0
+     */
+    public void addDecodedBytes(long bytes) {
+        decodedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Gets a copy of the current statistics.
+     * The counters are copied one by one, so a snapshot taken while loading may be off by the loads in progress
+     * @return the statistics snapshot
+     * @since 1.0
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Resets all the statistics
+     * @since 1.0
+     */
+    public void reset() {
+        for( Histogram histogram : histograms.values() ) {
+            histogram.reset();
+        }
+        for( AtomicLong count : tierCounts.values() ) {
+            count.set(0);
+        }
+        downloadedBytes.set(0);
+        decodedBytes.set(0);
+    }
+
+    /**
+     * Writes a snapshot of the statistics to a text file for offline analysis, replacing any existing file.
+     * The snapshot is written to a temporary file first and then renamed, so the file is never left half written
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     * @see com.brightcove.utils.ImageStats.Snapshot#write(java.io.PrintWriter)
+     * @since 1.0
+     */
+    public void dump(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            getSnapshot().write(writer);
+        }
+        finally {
+            writer.close();
+        }
+        if( writer.checkError() || !tempFile.renameTo(file) ) {
+            tempFile.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    /**
+     * Gets the upper bound of a histogram bucket
+     * @param bucket the bucket index
+     * @return the exclusive upper bound in milliseconds, or Long.MAX_VALUE for the last bucket
+     * @since 1.0
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket < BUCKET_COUNT - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    /**
+     * Internal class for the lock free duration histogram of a single stage
+     * @since 1.0
+     */
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long millis) {
+            millis = Math.max(0, millis);
+            int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            count.incrementAndGet();
+            sum.addAndGet(millis);
+            long currentMax;
+            while( millis > (currentMax = max.get()) && !max.compareAndSet(currentMax, millis) ) {
+                // Retries until the max is updated, or another thread has recorded a longer duration
+            }
+        }
+
+        public void reset() {
+            for( int i = 0; i < BUCKET_COUNT; i++ ) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+    }
+
+    /**
+     * Immutable copy of the statistics at a point in time
+     * @since 1.0
+     */
+    public static class Snapshot {
+        private final long timestamp = System.currentTimeMillis();
+        private final Map<Stage, long[]> buckets = new EnumMap<Stage, long[]>(Stage.class);
+        private final Map<Stage, long[]> totals = new EnumMap<Stage, long[]>(Stage.class);
+        private final Map<Tier, Long> tierCounts = new EnumMap<Tier, Long>(Tier.class);
+        private final long downloadedBytes;
+        private final long decodedBytes;
+
+        private Snapshot(ImageStats stats) {
+            for( Map.Entry<Stage, Histogram> entry : stats.histograms.entrySet() ) {
+                Histogram histogram = entry.getValue();
+                long[] counts = new long[BUCKET_COUNT];
+                for( int i = 0; i < BUCKET_COUNT; i++ ) {
+                    counts[i] = histogram.buckets.get(i);
+                }
+                buckets.put(entry.getKey(), counts);
+                totals.put(entry.getKey(), new long[] { histogram.count.get(), histogram.sum.get(), histogram.max.get() });
+            }
+            for( Map.Entry<Tier, AtomicLong> entry : stats.tierCounts.entrySet() ) {
+                tierCounts.put(entry.getKey(), entry.getValue().get());
+            }
+            downloadedBytes = stats.downloadedBytes.get();
+            decodedBytes = stats.decodedBytes.get();
+        }
+
+        /**
+         * Gets the time the snapshot was taken
+         * @return the time in milliseconds since the epoch
+         * @since 1.0
+         */
+        public long getTimestamp() { return timestamp; }
+
+        /**
+         * Gets the number of recorded durations of a stage
+         * @param stage the stage
+         * @return the recorded count
+         * @since 1.0
+         */
+        public long getCount(Stage stage) { return totals.get(stage)[0]; }
+
+        /**
+         * Gets the mean duration of a stage
+         * @param stage the stage
+         * @return the mean duration in milliseconds, or 0 if none recorded
+         * @since 1.0
+         */
+        public double getMean(Stage stage) {
+            long count = getCount(stage);
+            return count > 0 ? totals.get(stage)[1] / (double) count : 0;
+        }
+
+        /**
+         * Gets the longest duration of a stage
+         * @param stage the stage
+         * @return the maximum duration in milliseconds
+         * @since 1.0
+         */
+        public long getMax(Stage stage) { return totals.get(stage)[2]; }
+
+        /**
+         * Gets an upper bound of a percentile of the durations of a stage, the upper bound of the histogram bucket it falls in
+         * @param stage the stage
+         * @param percentile the percentile, between 0 and 100
+         * @return the percentile upper bound in milliseconds, at most the maximum duration, or 0 if none recorded
+         * @since 1.0
+         */
+        public long getPercentile(Stage stage, double percentile) {
+            long[] counts = buckets.get(stage);
+            long count = 0;
+            for( long bucketCount : counts ) {
+                count += bucketCount;
+            }
+            if( count == 0 ) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for( int i = 0; i < counts.length; i++ ) {
+                seen += counts[i];
+                if( seen >= rank && seen > 0 ) {
+                    return Math.min(getBucketUpperBound(i) - 1, getMax(stage));
+                }
+            }
+            return getMax(stage);
+        }
+
+        /**
+         * Gets the histogram bucket counts of a stage
+         * @param stage the stage
+         * @return a copy of the bucket counts
+         * @see com.brightcove.utils.ImageStats#getBucketUpperBound(int)
+         * @since 1.0
+         */
+        public long[] getBucketCounts(Stage stage) { return buckets.get(stage).clone(); }
+
+        /**
+         * Gets the number of images served from a cache tier
+         * @param tier the cache tier
+         * @return the served count
+         * @since 1.0
+         */
+        public long getTierCount(Tier tier) { return tierCounts.get(tier); }
+
+        /**
+         * Gets the share of the images served from a cache tier
+         * @param tier the cache tier
+         * @return the ratio between 0 and 1, or 0 if no images were served
+         * @since 1.0
+         */
+        public double getTierRatio(Tier tier) {
+            long total = 0;
+            for( Long count : tierCounts.values() ) {
+                total += count;
+            }
+            return total > 0 ? getTierCount(tier) / (double) total : 0;
+        }
+
+        /**
+         * Gets the number of bytes downloaded
+         * @return the downloaded byte count
+         * @since 1.0
+         */
+        public long getDownloadedBytes() { return downloadedBytes; }
+
+        /**
+         * Gets the number of bitmap bytes decoded
+         * @return the decoded bitmap byte count
+         * @since 1.0
+         */
+        public long getDecodedBytes() { return decodedBytes; }
+
+        /**
+         * Writes the snapshot as tab separated text lines: a line per stage with its count, mean, percentiles and maximum,
+         * followed by its bucket counts, a line per cache tier, and the byte counters
+         * @param writer the writer to write to
+         * @since 1.0
+         */
+        public void write(PrintWriter writer) {
+            writer.println("timestamp\t" + timestamp);
+            writer.println("stage\tcount\tmean_ms\tp50_ms\tp90_ms\tp99_ms\tmax_ms");
+            for( Stage stage : Stage.values() ) {
+                writer.println(stage + "\t" + getCount(stage) + "\t" + String.format(Locale.US, "%.1f", getMean(stage))
+                        + "\t" + getPercentile(stage, 50) + "\t" + getPercentile(stage, 90) + "\t" + getPercentile(stage, 99)
+                        + "\t" + getMax(stage));
+            }
+            StringBuilder header = new StringBuilder("buckets");
+            for( int i = 0; i < BUCKET_COUNT; i++ ) {
+                header.append(i < BUCKET_COUNT - 1 ? "\t<" + getBucketUpperBound(i) : "\t>=" + getBucketUpperBound(i - 1));
+            }
+            writer.println(header);
+            for( Stage stage : Stage.values() ) {
+                StringBuilder line = new StringBuilder(stage.toString());
+                for( long count : buckets.get(stage) ) {
+                    line.append('\t').append(count);
+                }
+                writer.println(line);
+            }
+            writer.println("tier\tcount\tratio");
+            for( Tier tier : Tier.values() ) {
+                writer.println(tier + "\t" + getTierCount(tier) + "\t" + String.format(Locale.US, "%.3f", getTierRatio(tier)));
+            }
+            writer.println("downloaded_bytes\t" + downloadedBytes);
+            writer.println("decoded_bytes\t" + decodedBytes);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.brightcove.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the observed load latency per host as exponentially weighted moving averages of the latency and its deviation,
+ * in the same way TCP estimates its retransmission timeout.
+ * <p>
+ * Used by the {@link com.brightcove.utils.ImageLoader} to derive how long to wait for an image before hedging
+ * with the next fallback image, so a fast host is hedged early and a consistently slow host is given more time.
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @see com.brightcove.utils.DownloadImageTask.Fallback#HEDGED
+ * @since 1.0
+ */
+public class LatencyTracker {
+    // Smoothing factors of the latency average and of its deviation
+    private static final float LATENCY_GAIN = 0.125f;
+    private static final float DEVIATION_GAIN = 0.25f;
+
+    private final long defaultDelay;
+    private final long minDelay;
+    private final long maxDelay;
+    // The latency estimates, by host
+    private final Map<String, Estimate> estimates = new HashMap<String, Estimate>();
+
+    /**
+     * Constructs a new LatencyTracker
+     * @param defaultDelay the hedge delay in milliseconds for a host without any observed latency
+     * @param minDelay the minimum hedge delay in milliseconds
+     * @param maxDelay the maximum hedge delay in milliseconds
+     * @since 1.0
+     */
+    public LatencyTracker(long defaultDelay, long minDelay, long maxDelay) {
+        this.defaultDelay = defaultDelay;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Records an observed latency for the host
+     * @param host the host name
+     * @param latency the observed latency in milliseconds
+     * @since 1.0
+     */
+    public synchronized void record(String host, long latency) {
+        if( host == null || latency < 0 ) {
+            return;
+        }
+        Estimate estimate = estimates.get(host);
+        if( estimate == null ) {
+            estimates.put(host, new Estimate(latency, latency / 2f));
+        }
+        else {
+            estimate.deviation += DEVIATION_GAIN * (Math.abs(latency - estimate.latency) - estimate.deviation);
+            estimate.latency += LATENCY_GAIN * (latency - estimate.latency);
+        }
+    }
+
+    /**
+     * Gets how long to wait for an image from the host before hedging, the average latency plus four deviations
+     * @param host the host name
+     * @return the hedge delay in milliseconds, within the minimum and maximum delay
+     * @since 1.0
+     */
+    public synchronized long getHedgeDelay(String host) {
+        Estimate estimate = host != null ? estimates.get(host) : null;
+        if( estimate == null ) {
+            return defaultDelay;
+        }
+        long delay = (long) (estimate.latency + 4 * estimate.deviation);
+        return Math.max(minDelay, Math.min(maxDelay, delay));
+    }
+
+    /**
+     * Internal class for the latency estimate of a single host
+     * @since 1.0
+     */
+    private static class Estimate {
+        private float latency;
+        private float deviation;
+
+        public Estimate(float latency, float deviation) {
+            this.latency = latency;
+            this.deviation = deviation;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.brightcove.examples.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Build time tool converting the Json playlist and video lookup map into the binary catalog snapshot
+ * read by {@link com.brightcove.examples.model.CatalogSnapshot}, in the layout of {@link com.brightcove.examples.model.CatalogSnapshotFormat}.
+ * <p>
+ * Run by the {@code -pre-build} target of {@code custom_rules.xml}, outside of Android, so it must only depend on
+ * the plain Java model classes and Gson.
+ * <p>
+ * Usage:<br>
+ * {@code java com.brightcove.examples.model.CatalogSnapshotWriter sample_playlist.json sample_videos.json catalog.snapshot.mp3 }
+ *
+ * @author Maximilian Nyman (max.nyman@anvilcreative.com)
+ * @since 1.0
+ */
+public class CatalogSnapshotWriter {
+
+    // The distinct strings, in string table order
+    private final List<byte[]> strings = new ArrayList<byte[]>();
+    // The string table index of each distinct string
+    private final Map<String,Integer> stringIndexes = new HashMap<String,Integer>();
+    private int stringDataLength = 0;
+
+    /**
+     * Converts the Json catalogs into the binary catalog snapshot
+     * @param args the playlist Json file, the video lookup map Json file and the snapshot file to write
+     * @throws IOException if a Json catalog could not be parsed, or the snapshot could not be written
+     * @since 1.0
+     */
+    public static void main(String[] args) throws IOException {
+        if( args.length != 3 ) {
+            System.err.println("Usage: CatalogSnapshotWriter <playlist.json> <videos.json> <snapshot>");
+            System.exit(1);
+        }
+        final List<VideoItem> playlist = new ArrayList<VideoItem>();
+        new VideoCatalogParser().parse(new FileInputStream(args[0]), "playlist", new VideoCatalogParser.Callback() {
+            @Override
+            public void onVideoItem(VideoItem videoItem) {
+                playlist.add(videoItem);
+            }
+        });
+        // Sorted by video identifier, the last of any duplicate video identifier winning as in VideoIndex
+        final TreeMap<String,String> videos = new TreeMap<String,String>();
+        new VideoCatalogParser().parse(new FileInputStream(args[1]), "videos", new VideoCatalogParser.Callback() {
+            @Override
+            public void onVideoItem(VideoItem videoItem) {
+                if( videoItem.getVideoId() != null ) {
+                    videos.put(videoItem.getVideoId(), videoItem.getVideo());
+                }
+            }
+        });
+
+        File snapshotFile = new File(args[2]);
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            new CatalogSnapshotWriter().write(playlist, videos, out);
+        }
+        finally {
+            out.close();
+        }
+        if( (snapshotFile.exists() && !snapshotFile.delete()) || !tempFile.renameTo(snapshotFile) ) {
+            throw new IOException("Unable to write " + snapshotFile);
+        }
+        System.out.println("Wrote " + playlist.size() + " playlist items and " + videos.size() + " videos to " + snapshotFile);
+    }
+
+    /**
+     * Writes the snapshot of the catalog
+     * @param playlist the playlist items, in playlist order
+     * @param videos the video urls, sorted by video identifier
+     * @param out the output stream to write the snapshot to
+     * @throws IOException if the snapshot could not be written
+     * @since 1.0
+     */
+    public void write(List<VideoItem> playlist, TreeMap<String,String> videos, OutputStream out) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        for( VideoItem videoItem : playlist ) {
+            recordsOut.writeInt(intern(videoItem.getVideoId()));
+            recordsOut.writeInt(intern(videoItem.getVideo()));
+            recordsOut.writeInt(intern(videoItem.getThumbnail()));
+            recordsOut.writeInt(intern(videoItem.getPoster()));
+            recordsOut.writeInt(intern(videoItem.getTitle()));
+            recordsOut.writeInt(intern(videoItem.getResourceId()));
+            recordsOut.writeInt(videoItem.getIsProtected() ? CatalogSnapshotFormat.FLAG_PROTECTED : 0);
+        }
+        for( Map.Entry<String,String> video : videos.entrySet() ) {
+            recordsOut.writeInt(intern(video.getKey()));
+            recordsOut.writeInt(intern(video.getValue()));
+        }
+        recordsOut.flush();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        int offset = 0;
+        for( byte[] string : strings ) {
+            bodyOut.writeInt(offset);
+            offset += string.length;
+        }
+        bodyOut.writeInt(offset);
+        for( byte[] string : strings ) {
+            bodyOut.write(string);
+        }
+        int padded = CatalogSnapshotFormat.getPlaylistOffset(strings.size(), stringDataLength)
+                - CatalogSnapshotFormat.getStringDataOffset(strings.size());
+        for( int i = stringDataLength; i < padded; i++ ) {
+            bodyOut.writeByte(0);
+        }
+        records.writeTo(bodyOut);
+        bodyOut.flush();
+
+        CRC32 checksum = new CRC32();
+        checksum.update(body.toByteArray());
+
+        DataOutputStream headerOut = new DataOutputStream(out);
+        headerOut.writeInt(CatalogSnapshotFormat.MAGIC);
+        headerOut.writeInt(CatalogSnapshotFormat.VERSION);
+        headerOut.writeLong(checksum.getValue());
+        headerOut.writeInt(strings.size());
+        headerOut.writeInt(playlist.size());
+        headerOut.writeInt(videos.size());
+        body.writeTo(headerOut);
+        headerOut.flush();
+    }
+
+    /**
+     * Gets the string table index of the string, adding it to the string table if not already added
+     * @param string the string, or null
+     * @return the string table index, or NO_STRING for null
+     */
+    private int intern(String string) throws IOException {
+        if( string == null ) {
+            return CatalogSnapshotFormat.NO_STRING;
+        }
+        Integer index = stringIndexes.get(string);
+        if( index == null ) {
+            byte[] bytes = string.getBytes("UTF-8");
+            index = strings.size();
+            strings.add(bytes);
+            stringIndexes.put(string, index);
+            stringDataLength += bytes.length;
+        }
+        return index;
+    }
+}